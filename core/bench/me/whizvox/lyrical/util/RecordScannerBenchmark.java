@@ -0,0 +1,95 @@
+package me.whizvox.lyrical.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures how many bytes are allocated per line when parsing <code>begin,end,text</code> lines, the way
+ * <code>song.ini</code>'s [Lines] section is written, with {@link RecordScanner} and with what it replaced:
+ * {@link BufferedReader#readLine()}, {@link StringUtils#tokenize(String, char, int, List)} and
+ * {@link Integer#parseInt(String)}.
+ * <br>
+ * Allocation is read with <code>com.sun.management.ThreadMXBean.getThreadAllocatedBytes</code>, so this needs a HotSpot
+ * JVM. Run it with <code>gradlew :core:benchRecordScanner</code>.
+ */
+public class RecordScannerBenchmark {
+
+  private static final int
+      LINES = 20000,
+      WARMUP_ROUNDS = 20,
+      ROUNDS = 10;
+
+  // keeps results alive so the JIT can't throw the parsing away
+  private static long sink;
+
+  public static void main(String[] args) throws IOException {
+    StringBuilder sb = new StringBuilder(LINES * 40);
+    for (int i = 0; i < LINES; i++) {
+      sb.append(i * 1500).append(',').append(i * 1500 + 1200).append(",Some lyrics for line number ").append(i)
+          .append('\n');
+    }
+    final String input = sb.toString();
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    final long threadId = Thread.currentThread().getId();
+    RecordScanner scanner = new RecordScanner(1024);
+    List<String> tokens = new ArrayList<>();
+
+    for (int i = 0; i < WARMUP_ROUNDS; i++) {
+      parseTokenize(input, tokens, true);
+      parseScanner(input, scanner, true);
+      parseScanner(input, scanner, false);
+    }
+    long before = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < ROUNDS; i++) {
+      parseTokenize(input, tokens, true);
+    }
+    final long tokenizeBytes = threads.getThreadAllocatedBytes(threadId) - before;
+    before = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < ROUNDS; i++) {
+      parseScanner(input, scanner, true);
+    }
+    final long scannerTextBytes = threads.getThreadAllocatedBytes(threadId) - before;
+    before = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < ROUNDS; i++) {
+      parseScanner(input, scanner, false);
+    }
+    final long scannerIntsBytes = threads.getThreadAllocatedBytes(threadId) - before;
+
+    final double lines = (double) LINES * ROUNDS;
+    System.out.printf("tokenize + parseInt:          %7.1f B/line%n", tokenizeBytes / lines);
+    System.out.printf("RecordScanner (with text):    %7.1f B/line%n", scannerTextBytes / lines);
+    System.out.printf("RecordScanner (ints only):    %7.1f B/line%n", scannerIntsBytes / lines);
+    if (sink == 42) {
+      System.out.println();
+    }
+  }
+
+  private static void parseTokenize(String input, List<String> tokens, boolean text) throws IOException {
+    try (BufferedReader reader = new BufferedReader(new StringReader(input))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        StringUtils.tokenize(line, ',', 3, tokens);
+        sink += Integer.parseInt(tokens.get(0)) + Integer.parseInt(tokens.get(1));
+        if (text) {
+          sink += tokens.get(2).length();
+        }
+      }
+    }
+  }
+
+  private static void parseScanner(String input, RecordScanner scanner, boolean text) throws IOException {
+    scanner.reset(new StringReader(input));
+    while (scanner.nextLine()) {
+      scanner.split(',', 3);
+      sink += scanner.fieldInt(0) + scanner.fieldInt(1);
+      if (text) {
+        sink += scanner.fieldString(2).length();
+      }
+    }
+  }
+
+}
@@ -7,13 +7,22 @@ import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import me.whizvox.lyrical.graphics.GraphicsManager;
 import me.whizvox.lyrical.scene.*;
+import me.whizvox.lyrical.song.AudioProbe;
+import me.whizvox.lyrical.song.CacheManager;
+import me.whizvox.lyrical.song.LibraryWatcher;
+import me.whizvox.lyrical.song.MusicHandoff;
+import me.whizvox.lyrical.song.OnsetCache;
+import me.whizvox.lyrical.song.PreviewCache;
 import me.whizvox.lyrical.song.SongsRepository;
+import me.whizvox.lyrical.song.TranscodeCache;
+import me.whizvox.lyrical.song.WaveformCache;
 
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
+import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -23,6 +32,14 @@ public class Lyrical extends ApplicationAdapter {
   ShapeRenderer srenderer;
 
   SongsRepository repo;
+  LibraryWatcher watcher;
+  TranscodeCache transcodeCache;
+  PreviewCache previewCache;
+  WaveformCache waveformCache;
+  OnsetCache onsetCache;
+  AudioProbe audioProbe;
+  CacheManager cacheManager;
+  MusicHandoff musicHandoff;
 
   private Settings settings;
 
@@ -99,13 +116,40 @@ public class Lyrical extends ApplicationAdapter {
       Reference.Files.CACHE_DIR.mkdirs();
     }
 
-    repo = new SongsRepository("songs");
+    cacheManager = new CacheManager(
+        Paths.get(Reference.Files.CACHE_DIR.path()),
+        Paths.get(Reference.Files.SONGS_DIR.path()),
+        Paths.get(Reference.Files.LIBRARY_INDEX.path()),
+        settings.getInt(Reference.Settings.CACHE_BUDGET_MB, Reference.Defaults.CACHE_BUDGET_MB) * 1024L * 1024L
+    );
+    cacheManager.start();
+    transcodeCache = new TranscodeCache(Paths.get(Reference.Files.TRANSCODE_DIR.path()), cacheManager);
+    previewCache = new PreviewCache(Paths.get(Reference.Files.PREVIEW_DIR.path()), cacheManager);
+    previewCache.start();
+    waveformCache = new WaveformCache(Paths.get(Reference.Files.WAVEFORM_DIR.path()), cacheManager);
+    onsetCache = new OnsetCache(cacheManager);
+    audioProbe = new AudioProbe();
+    musicHandoff = new MusicHandoff();
+    repo = new SongsRepository(
+        Reference.Files.SONGS_DIR.path(),
+        Reference.Files.LIBRARY_INDEX.path(),
+        settings.getInt(Reference.Settings.SCAN_THREADS, Reference.Defaults.SCAN_THREADS)
+    );
     try {
       repo.refresh();
     } catch (IOException e) {
       System.err.println("Could not refresh songs directory");
       e.printStackTrace();
     }
+    watcher = new LibraryWatcher(
+        repo, Paths.get(Reference.Files.SONGS_DIR.path()), Paths.get(Reference.Files.IMPORT_DIR.path())
+    );
+    try {
+      watcher.start();
+    } catch (IOException e) {
+      System.err.println("Could not watch the songs and import directories, press F5 to pick up changes");
+      e.printStackTrace();
+    }
 
     scenes = new HashMap<>();
     scenes.put(SCENE_TITLE, new TitleScene(gm));
@@ -154,6 +198,13 @@ public class Lyrical extends ApplicationAdapter {
       e.printStackTrace();
     }
 
+    watcher.dispose();
+    previewCache.dispose();
+    waveformCache.dispose();
+    onsetCache.dispose();
+    audioProbe.dispose();
+    cacheManager.dispose();
+    musicHandoff.dispose();
     gm.dispose();
     currentScene.dispose();
   }
@@ -170,6 +221,38 @@ public class Lyrical extends ApplicationAdapter {
     return repo;
   }
 
+  public LibraryWatcher getLibraryWatcher() {
+    return watcher;
+  }
+
+  public TranscodeCache getTranscodeCache() {
+    return transcodeCache;
+  }
+
+  public PreviewCache getPreviewCache() {
+    return previewCache;
+  }
+
+  public WaveformCache getWaveformCache() {
+    return waveformCache;
+  }
+
+  public OnsetCache getOnsetCache() {
+    return onsetCache;
+  }
+
+  public AudioProbe getAudioProbe() {
+    return audioProbe;
+  }
+
+  public CacheManager getCacheManager() {
+    return cacheManager;
+  }
+
+  public MusicHandoff getMusicHandoff() {
+    return musicHandoff;
+  }
+
   public void switchScene(int sceneId, Object transitionData) {
     if (queuedScene != null) {
       System.err.println("Two or more scenes attempted to queue at once");
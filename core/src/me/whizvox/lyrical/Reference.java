@@ -13,7 +13,11 @@ public class Reference {
         SONGS_DIR = Gdx.files.local("songs"),
         IMPORT_DIR = Gdx.files.local("import"),
         CACHE_DIR = Gdx.files.local("cache"),
-        SETTINGS = Gdx.files.local("lyrical.cfg");
+        SETTINGS = Gdx.files.local("lyrical.cfg"),
+        LIBRARY_INDEX = CACHE_DIR.child("library.idx"),
+        TRANSCODE_DIR = CACHE_DIR.child("transcodes"),
+        PREVIEW_DIR = CACHE_DIR.child("previews"),
+        WAVEFORM_DIR = CACHE_DIR.child("waveforms");
   }
 
   public static final class Settings {
@@ -23,7 +27,10 @@ public class Reference {
         FULLSCREEN = "Fullscreen",
         WINDOW_WIDTH = "WindowWidth",
         WINDOW_HEIGHT = "WindowHeight",
-        MUSIC_VOLUME = "MusicVolume";
+        MUSIC_VOLUME = "MusicVolume",
+        SCAN_THREADS = "ScanThreads",
+        CACHE_BUDGET_MB = "CacheBudgetMB",
+        IMPORT_TRANSCODE = "ImportTranscode";
   }
 
   public static final class Defaults {
@@ -32,9 +39,12 @@ public class Reference {
         RESOLUTION_HEIGHT = 450,
         WINDOW_WIDTH = RESOLUTION_WIDTH,
         WINDOW_HEIGHT = RESOLUTION_HEIGHT,
-        MUSIC_VOLUME = 50;
+        MUSIC_VOLUME = 50,
+        SCAN_THREADS = 0, // 0 = one per available processor
+        CACHE_BUDGET_MB = 4096; // 0 = no limit
     public static final boolean
-        FULLSCREEN = false;
+        FULLSCREEN = false,
+        IMPORT_TRANSCODE = false; // whether importing everything also prepares each song's audio for the editor
   }
 
 }
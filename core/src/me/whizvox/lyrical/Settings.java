@@ -1,5 +1,6 @@
 package me.whizvox.lyrical;
 
+import me.whizvox.lyrical.util.RecordScanner;
 import me.whizvox.lyrical.util.StringUtils;
 
 import java.io.*;
@@ -71,16 +72,14 @@ public class Settings {
   }
 
   public void load(Reader reader) throws IOException {
-    BufferedReader r = new BufferedReader(reader);
+    RecordScanner scanner = new RecordScanner(1024);
+    scanner.reset(reader);
     settings.clear();
-    String line;
-    List<String> tokens = new ArrayList<>(2);
-    while ((line = r.readLine()) != null) {
-      StringUtils.tokenize(line, '=', 2, tokens);
-      if (tokens.size() != 2) {
-        System.err.println("Invalid line while reading settings: \"" + line + "\"");
+    while (scanner.nextLine()) {
+      if (scanner.split('=', 2) != 2) {
+        System.err.println("Invalid line while reading settings: \"" + scanner.lineString() + "\"");
       } else {
-        settings.put(tokens.get(0), tokens.get(1));
+        settings.put(scanner.fieldString(0), scanner.fieldString(1));
       }
     }
   }
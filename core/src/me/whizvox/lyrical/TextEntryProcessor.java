@@ -7,32 +7,49 @@ import com.badlogic.gdx.graphics.g2d.GlyphLayout;
 import com.badlogic.gdx.math.Vector2;
 import me.whizvox.lyrical.graphics.GraphicsManager;
 import me.whizvox.lyrical.graphics.TextBox;
+import me.whizvox.lyrical.util.Clock;
 
 public class TextEntryProcessor extends InputAdapter {
 
+  private static final long
+      // how long the cursor bar stays shown, then hidden
+      CURSOR_BLINK_MILLIS = 500,
+      // how long an arrow key has to be held down before the cursor starts moving by itself, and how often it moves
+      KEY_REPEAT_DELAY_MILLIS = 500,
+      KEY_REPEAT_INTERVAL_MILLIS = 17,
+      // clock readings can be anything, including 0
+      NOT_DOWN = Long.MIN_VALUE;
+
+  private final Clock clock;
   private boolean enteringText;
   private StringBuilder text;
   private StringBuilder prevText;
   private int cursorPos;
   private int prevCursorPos;
 
-  private int cursorBarRenderCooldown;
-  private int cursorBarCounter;
+  private long cursorBarStartTime;
 
   private long leftDownTime, rightDownTime;
+  // when the cursor last moved by itself from holding down an arrow key
+  private long lastRepeatTime;
 
-  public TextEntryProcessor() {
+  public TextEntryProcessor(Clock clock) {
+    this.clock = clock;
     cursorPos = 0;
     prevCursorPos = 0;
     text = new StringBuilder();
     prevText = new StringBuilder();
     enteringText = false;
 
-    cursorBarRenderCooldown = 30;
-    cursorBarCounter = 0;
+    cursorBarStartTime = clock.millis();
 
-    leftDownTime = 0;
-    rightDownTime = 0;
+    leftDownTime = NOT_DOWN;
+    rightDownTime = NOT_DOWN;
+    lastRepeatTime = Long.MIN_VALUE;
+  }
+
+  public TextEntryProcessor() {
+    this(Clock.SYSTEM);
   }
 
   public int getCursorPos() {
@@ -52,13 +69,14 @@ public class TextEntryProcessor extends InputAdapter {
   }
 
   public boolean hasCursorPosChanged() {
-    final long t = System.currentTimeMillis();
-    if (leftDownTime != 0 && Gdx.input.isKeyPressed(Input.Keys.LEFT) && t - leftDownTime > 500) {
-      if (cursorPos > 0) {
+    final long t = clock.millis();
+    // moves as many times as it would have if this was called at every repeat interval, however often it really is
+    if (leftDownTime != NOT_DOWN && Gdx.input.isKeyPressed(Input.Keys.LEFT) && t - leftDownTime > KEY_REPEAT_DELAY_MILLIS) {
+      for (int i = takeRepeats(t, leftDownTime); i > 0 && cursorPos > 0; i--) {
         cursorPos--;
       }
-    } else if (rightDownTime != 0 && Gdx.input.isKeyPressed(Input.Keys.RIGHT) && t - rightDownTime > 500) {
-      if (cursorPos < text.length()) {
+    } else if (rightDownTime != NOT_DOWN && Gdx.input.isKeyPressed(Input.Keys.RIGHT) && t - rightDownTime > KEY_REPEAT_DELAY_MILLIS) {
+      for (int i = takeRepeats(t, rightDownTime); i > 0 && cursorPos < text.length(); i--) {
         cursorPos++;
       }
     }
@@ -69,6 +87,13 @@ public class TextEntryProcessor extends InputAdapter {
     return false;
   }
 
+  private int takeRepeats(long t, long downTime) {
+    final long since = Math.max(lastRepeatTime, downTime + KEY_REPEAT_DELAY_MILLIS - KEY_REPEAT_INTERVAL_MILLIS);
+    final int repeats = (int) ((t - since) / KEY_REPEAT_INTERVAL_MILLIS);
+    lastRepeatTime = since + repeats * KEY_REPEAT_INTERVAL_MILLIS;
+    return repeats;
+  }
+
   public void setCursorPos(int newCursorPos) {
     if (newCursorPos < 0 || newCursorPos > text.length()) {
       cursorPos = text.length();
@@ -98,11 +123,7 @@ public class TextEntryProcessor extends InputAdapter {
   }
 
   public boolean drawCursorBar() {
-    if (cursorBarCounter++ > cursorBarRenderCooldown * 2) {
-      cursorBarCounter = 0;
-      return true;
-    }
-    return cursorBarCounter <= cursorBarRenderCooldown;
+    return (clock.millis() - cursorBarStartTime) % (CURSOR_BLINK_MILLIS * 2) < CURSOR_BLINK_MILLIS;
   }
 
   @Override
@@ -112,13 +133,15 @@ public class TextEntryProcessor extends InputAdapter {
         if (cursorPos > 0) {
           cursorPos--;
         }
-        leftDownTime = System.currentTimeMillis();
+        leftDownTime = clock.millis();
+        lastRepeatTime = Long.MIN_VALUE;
         break;
       case Input.Keys.RIGHT:
         if (cursorPos < text.length()) {
           cursorPos++;
         }
-        rightDownTime = System.currentTimeMillis();
+        rightDownTime = clock.millis();
+        lastRepeatTime = Long.MIN_VALUE;
         break;
     }
     return true;
@@ -128,10 +151,10 @@ public class TextEntryProcessor extends InputAdapter {
   public boolean keyUp(int keycode) {
     switch (keycode) {
       case Input.Keys.LEFT:
-        leftDownTime = 0;
+        leftDownTime = NOT_DOWN;
         break;
       case Input.Keys.RIGHT:
-        rightDownTime = 0;
+        rightDownTime = NOT_DOWN;
         break;
     }
     return true;
@@ -25,12 +25,13 @@ public class DynamicTextBox extends TextBox {
     this.truncate = truncate;
   }
 
+  // both of these reuse the layout and position, so text that changes often doesn't make garbage every time
   public void reloadGlyphLayout() {
-    glyphLayout = new GlyphLayout(font, text, 0, text.length(), color, outerBounds.width, align, wrap, truncate);
+    glyphLayout.setText(font, text, 0, text.length(), color, outerBounds.width, align, wrap, truncate);
   }
 
   public void reloadTextPosition() {
-    textPosition = MathUtils.alignRectangle(outerBounds, new Vector2(glyphLayout.width, glyphLayout.height), align);
+    MathUtils.alignRectangle(outerBounds, glyphLayout.width, glyphLayout.height, align, textPosition);
   }
 
   public void updateFont(BitmapFont newFont) {
@@ -0,0 +1,277 @@
+package me.whizvox.lyrical.graphics;
+
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.utils.Disposable;
+import me.whizvox.lyrical.util.FFT;
+import me.whizvox.lyrical.util.WavReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A short-time FFT spectrogram of a WAV file, drawn along a timeline.
+ * <br>
+ * The spectrogram is split into tiles of {@link #TILE_COLUMNS} FFT frames each, which are only computed once they're
+ * about to be shown. Workers read just the stretch of the WAV they need and render the tile into a pixmap, which the
+ * render thread then uploads as a texture, a couple per frame at most. Only the tiles that were drawn last are kept, at
+ * least {@link #MIN_KEPT_TILES} of them and always enough for everything in view plus the tiles on either side, so long
+ * songs never have their whole spectrogram in memory but zooming all the way out doesn't evict tiles that are still
+ * being shown.
+ * <br>
+ * Rows are spaced logarithmically between {@link #MIN_FREQUENCY} and {@link #MAX_FREQUENCY}, which is where vocals are.
+ * Except for the workers, everything here is meant to be used from the render thread.
+ */
+public class SpectrogramTiles implements Disposable {
+
+  public static final int
+      FFT_SIZE = 2048,
+      HOP = 512,
+      TILE_COLUMNS = 256,
+      TILE_ROWS = 128,
+      MIN_KEPT_TILES = 24,
+      MIN_FREQUENCY = 60,
+      MAX_FREQUENCY = 8000;
+
+  private static final int MAX_UPLOADS_PER_FRAME = 2;
+  private static final float
+      MIN_DB = -90,
+      MAX_DB = -10;
+
+  private final Path wav;
+  private final int sampleRate;
+  private final int tileCount;
+  private final FFT fft;
+  private final float[] window;
+  // which FFT bins make up each row, from the bottom row up
+  private final int[] rowFirstBin;
+  private final int[] rowLastBin;
+  private final int[] palette;
+  private final ExecutorService executor;
+
+  private final Map<Integer, Texture> tiles;
+  private final Map<Integer, Future<?>> pending;
+  private final Queue<Rendered> rendered;
+  // how many tiles to keep, which grows with how many fit in view
+  private int maxTiles;
+
+  /**
+   * @param lengthMillis How long the WAV is, so no tiles are asked for past the end
+   */
+  public SpectrogramTiles(Path wav, int sampleRate, int lengthMillis) {
+    this.wav = wav;
+    this.sampleRate = sampleRate;
+    final long frames = (long) lengthMillis * sampleRate / 1000;
+    tileCount = (int) ((frames + (long) TILE_COLUMNS * HOP - 1) / ((long) TILE_COLUMNS * HOP));
+    fft = new FFT(FFT_SIZE);
+    window = fft.createHannWindow();
+    rowFirstBin = new int[TILE_ROWS];
+    rowLastBin = new int[TILE_ROWS];
+    final double binHz = (double) sampleRate / FFT_SIZE;
+    final double maxFrequency = Math.min(MAX_FREQUENCY, sampleRate / 2.0);
+    final double ratio = Math.log(maxFrequency / MIN_FREQUENCY);
+    for (int row = 0; row < TILE_ROWS; row++) {
+      final double lo = MIN_FREQUENCY * Math.exp(ratio * row / TILE_ROWS);
+      final double hi = MIN_FREQUENCY * Math.exp(ratio * (row + 1) / TILE_ROWS);
+      rowFirstBin[row] = Math.max(1, (int) Math.floor(lo / binHz));
+      rowLastBin[row] = Math.max(rowFirstBin[row], Math.min(FFT_SIZE / 2 - 1, (int) Math.ceil(hi / binHz) - 1));
+    }
+    palette = createPalette();
+    final int workers = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+    executor = Executors.newFixedThreadPool(workers, r -> {
+      Thread thread = new Thread(r, "Spectrogram");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+    maxTiles = MIN_KEPT_TILES;
+    tiles = new LinkedHashMap<Integer, Texture>(MIN_KEPT_TILES * 2, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, Texture> eldest) {
+        if (size() > maxTiles) {
+          eldest.getValue().dispose();
+          return true;
+        }
+        return false;
+      }
+    };
+    pending = new HashMap<>();
+    rendered = new ConcurrentLinkedQueue<>();
+  }
+
+  public float getTileMillis() {
+    return (float) TILE_COLUMNS * HOP * 1000 / sampleRate;
+  }
+
+  /**
+   * Draws the stretch of the spectrogram between two timestamps, stretched over a rectangle on screen, and queues up
+   * whichever tiles aren't ready yet. The batch has to have been begun already.
+   */
+  public void draw(SpriteBatch batch, float beginMillis, float endMillis, float x, float y, float width, float height) {
+    uploadRendered();
+    final float tileMillis = getTileMillis();
+    final float pixelsPerMilli = width / (endMillis - beginMillis);
+    final int first = Math.max(0, (int) Math.floor(beginMillis / tileMillis));
+    final int last = Math.min(tileCount - 1, (int) Math.floor(endMillis / tileMillis));
+    // whatever's in view and the tiles on either side
+    maxTiles = Math.max(maxTiles, last - first + 3);
+    for (int tile = first; tile <= last; tile++) {
+      Texture texture = tiles.get(tile);
+      if (texture == null) {
+        request(tile);
+      } else {
+        batch.draw(texture, x + (tile * tileMillis - beginMillis) * pixelsPerMilli, y, tileMillis * pixelsPerMilli, height);
+      }
+    }
+    // get the tiles on either side ready for scrolling, and stop working on ones that went out of view
+    if (first > 0) {
+      request(first - 1);
+    }
+    if (last + 1 < tileCount) {
+      request(last + 1);
+    }
+    Iterator<Map.Entry<Integer, Future<?>>> it = pending.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Integer, Future<?>> entry = it.next();
+      if (entry.getKey() < first - 1 || entry.getKey() > last + 1) {
+        entry.getValue().cancel(false);
+        it.remove();
+      }
+    }
+  }
+
+  private void request(int tile) {
+    // getting it also marks it as just used, so tiles on either side aren't the first to be evicted
+    if (tiles.get(tile) != null || pending.containsKey(tile)) {
+      return;
+    }
+    pending.put(tile, executor.submit(() -> {
+      try {
+        Pixmap pixmap = render(tile);
+        if (pixmap != null) {
+          rendered.add(new Rendered(tile, pixmap));
+        }
+      } catch (IOException e) {
+        System.err.println("Could not compute spectrogram tile " + tile + " of <" + wav + ">");
+        e.printStackTrace();
+      }
+    }));
+  }
+
+  private void uploadRendered() {
+    Rendered r;
+    for (int i = 0; i < MAX_UPLOADS_PER_FRAME && (r = rendered.poll()) != null; i++) {
+      if (pending.remove(r.tile) == null) {
+        // went out of view while it was being rendered
+        r.pixmap.dispose();
+        continue;
+      }
+      Texture texture = new Texture(r.pixmap);
+      texture.setFilter(Texture.TextureFilter.Linear, Texture.TextureFilter.Linear);
+      r.pixmap.dispose();
+      tiles.put(r.tile, texture);
+    }
+  }
+
+  // returns null if the worker was interrupted
+  private Pixmap render(int tile) throws IOException {
+    final long firstFrame = (long) tile * TILE_COLUMNS * HOP - (FFT_SIZE - HOP) / 2;
+    final int frames = (TILE_COLUMNS - 1) * HOP + FFT_SIZE;
+    float[] samples = new float[frames];
+    try (WavReader reader = new WavReader(wav)) {
+      // anything before the start of the song is silence
+      final int skip = (int) Math.max(0, -firstFrame);
+      reader.seek(firstFrame + skip);
+      int offset = skip;
+      int read;
+      while (offset < frames && (read = reader.read(samples, offset, frames - offset)) > 0) {
+        offset += read;
+      }
+    }
+    float[] re = new float[FFT_SIZE];
+    float[] im = new float[FFT_SIZE];
+    Pixmap pixmap = new Pixmap(TILE_COLUMNS, TILE_ROWS, Pixmap.Format.RGBA8888);
+    ByteBuffer pixels = pixmap.getPixels();
+    for (int column = 0; column < TILE_COLUMNS; column++) {
+      if (Thread.currentThread().isInterrupted()) {
+        // disposed
+        pixmap.dispose();
+        return null;
+      }
+      final int start = column * HOP;
+      for (int i = 0; i < FFT_SIZE; i++) {
+        re[i] = samples[start + i] * window[i];
+        im[i] = 0;
+      }
+      fft.transform(re, im);
+      for (int row = 0; row < TILE_ROWS; row++) {
+        float power = 0;
+        for (int bin = rowFirstBin[row]; bin <= rowLastBin[row]; bin++) {
+          power = Math.max(power, re[bin] * re[bin] + im[bin] * im[bin]);
+        }
+        // normalized so a full-scale sine comes out near 0 dB
+        final float db = 10 * (float) Math.log10(power * 4 / ((float) FFT_SIZE * FFT_SIZE) + 1e-12f);
+        final float level = Math.max(0, Math.min(1, (db - MIN_DB) / (MAX_DB - MIN_DB)));
+        // pixmaps go from the top down
+        pixels.putInt(((TILE_ROWS - 1 - row) * TILE_COLUMNS + column) * 4, palette[(int) (level * 255)]);
+      }
+    }
+    return pixmap;
+  }
+
+  // black to purple to orange to pale yellow, as RGBA
+  private static int[] createPalette() {
+    final float[][] stops = {
+        {0, 0, 0},
+        {0.35f, 0.05f, 0.45f},
+        {0.85f, 0.3f, 0.2f},
+        {1, 0.75f, 0.1f},
+        {1, 1, 0.75f}
+    };
+    int[] palette = new int[256];
+    for (int i = 0; i < 256; i++) {
+      final float t = i / 255f * (stops.length - 1);
+      final int s = Math.min(stops.length - 2, (int) t);
+      final float f = t - s;
+      final int r = (int) ((stops[s][0] + (stops[s + 1][0] - stops[s][0]) * f) * 255);
+      final int g = (int) ((stops[s][1] + (stops[s + 1][1] - stops[s][1]) * f) * 255);
+      final int b = (int) ((stops[s][2] + (stops[s + 1][2] - stops[s][2]) * f) * 255);
+      // written with putInt, which is big endian, so this ends up as R, G, B, A in memory
+      palette[i] = (r << 24) | (g << 16) | (b << 8) | 0xFF;
+    }
+    return palette;
+  }
+
+  @Override
+  public void dispose() {
+    executor.shutdownNow();
+    tiles.values().forEach(Texture::dispose);
+    tiles.clear();
+    pending.clear();
+    Rendered r;
+    while ((r = rendered.poll()) != null) {
+      r.pixmap.dispose();
+    }
+  }
+
+  private static class Rendered {
+    final int tile;
+    final Pixmap pixmap;
+    Rendered(int tile, Pixmap pixmap) {
+      this.tile = tile;
+      this.pixmap = pixmap;
+    }
+  }
+
+}
@@ -15,20 +15,27 @@ import me.whizvox.lyrical.Reference;
 import me.whizvox.lyrical.TextEntryProcessor;
 import me.whizvox.lyrical.graphics.DynamicTextBox;
 import me.whizvox.lyrical.graphics.GraphicsManager;
+import me.whizvox.lyrical.graphics.SpectrogramTiles;
 import me.whizvox.lyrical.graphics.TextAlign;
 import me.whizvox.lyrical.graphics.TextBox;
-import me.whizvox.lyrical.song.Line;
+import me.whizvox.lyrical.song.LyricAligner;
+import me.whizvox.lyrical.song.Onsets;
 import me.whizvox.lyrical.song.Song;
+import me.whizvox.lyrical.song.SongsRepository;
+import me.whizvox.lyrical.song.TranscodeCache;
+import me.whizvox.lyrical.song.Waveform;
 import me.whizvox.lyrical.util.InputUtils;
 import me.whizvox.lyrical.util.Pair;
 import me.whizvox.lyrical.util.StringUtils;
 
-import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class Editor extends ApplicationAdapter {
 
@@ -37,9 +44,11 @@ public class Editor extends ApplicationAdapter {
   private Song song;
 
   private int timelinePos;
+  // how many milliseconds the timeline shows across the whole screen
+  private int timelineSpan;
   private DynamicTextBox positionTb;
   private DynamicTextBox modeTb;
-  private LinkedList<TextBox> linesTbs;
+  private List<TextBox> linesTbs;
 
   private EditingState editingState;
   private int selectedLine;
@@ -48,7 +57,9 @@ public class Editor extends ApplicationAdapter {
   private DynamicTextBox lineEditTb;
   private Rectangle lineEditCursor;
 
-  private Line newInsertLine;
+  private boolean inserting;
+  private int insertBegin;
+  private int insertEnd;
 
   private int selectedSongMeta;
   private boolean editingSongMeta;
@@ -59,6 +70,29 @@ public class Editor extends ApplicationAdapter {
 
   private String dirPath;
 
+  // the song plays its original audio until the WAV copy is ready
+  private TranscodeCache.Job transcodeJob;
+  private int transcodePercent;
+  private DynamicTextBox transcodeTb;
+  // the WAV copy and everything made from it, which are read again while editing and so can't be evicted until exit
+  private List<Path> pinnedPaths;
+
+  // peaks of the WAV copy, which load once it's ready. drawn with the same number of columns at every zoom.
+  private CompletableFuture<Waveform> waveformFuture;
+  private Waveform waveform;
+  private float[] waveformMins;
+  private float[] waveformMaxs;
+  private Path wavPath;
+  // made once the waveform has loaded, since that's where the WAV's length comes from
+  private SpectrogramTiles spectrogram;
+  private CompletableFuture<Onsets> onsetsFuture;
+  private Onsets onsets;
+  private boolean snapToOnsets;
+  // lyrics pasted in that are being aligned to the WAV
+  private CompletableFuture<LyricAligner.Proposal> alignFuture;
+  private List<String> aligningLines;
+  private DynamicTextBox alignTb;
+
   private TextBox savedTb;
   private int savedTbLife;
   private TextBox previewSetTb;
@@ -90,10 +124,17 @@ public class Editor extends ApplicationAdapter {
           "      * [GRAY][[Ctrl][]+[GRAY][[Left][]: Edit the begin point\n" +
           "      * [GRAY][[Ctrl][]+[GRAY][[Down / Up][]: Edit both the begin and end points, moving the entire line\n" +
           "      * [GRAY][[Ctrl][]+[GRAY][[Right][]: Edit the end point\n" +
-          "      * Default shift amount is 10ms. Hold [GRAY][[Alt][] to shift by 1ms, or hold [GRAY][[Shift][] to " +
-          "shift by 100ms.\n" +
+          "      * Default shift amount is 10ms, or to the previous/next onset while snapping to onsets. Hold " +
+          "[GRAY][[Alt][] to shift by 1ms, or hold [GRAY][[Shift][] to shift by 100ms.\n" +
           "      * Once you're done, press [GRAY][[Enter][] to save your changes, or [GRAY][[Escape][] to revert " +
           "back.\n" +
+          "  * [GRAY][[=][] and [GRAY][[-][]: Zoom the timeline in and out. The song's waveform is shown above the " +
+          "timeline once its audio is ready, with a spectrogram of it above that.\n" +
+          "  * [GRAY][[O][]: Toggle snapping to onsets, which are marked on the timeline. While snapping, inserted " +
+          "lines begin and end on the nearest onset.\n" +
+          "  * [GRAY][[Ctrl][]+[GRAY][[V][]: Paste lyrics from the clipboard during browsing mode, one line per " +
+          "line of text. Once the song's audio is ready, they're timed to where there's singing after the last " +
+          "line, to be reviewed and fixed up.\n" +
           "* [GOLD]Metadata[]: Allows editing of the song's metadata, like the title, artist, etc.\n" +
           "  * Use [GRAY][[Up][] and [GRAY][[Down][] to select the different options.\n" +
           "  * Press [GRAY][[Enter][] to edit a piece of selected metadata. Press [GRAY][[Enter][] to confirm or " +
@@ -111,6 +152,13 @@ public class Editor extends ApplicationAdapter {
       META_LANGUAGE = 2,
       META_CHARTER = 3;
 
+  private static final int
+      DEFAULT_TIMELINE_SPAN = 10000,
+      MIN_TIMELINE_SPAN = 1250,
+      MAX_TIMELINE_SPAN = 160000,
+      // how far away an onset can be for a line being inserted to snap to it
+      ONSET_SNAP_DISTANCE = 100;
+
   private float ePad;
   private float cWidth;
   private float ltbHeight;
@@ -130,12 +178,12 @@ public class Editor extends ApplicationAdapter {
     );
   }
 
-  private TextBox createTextBoxForLine(Line line) {
+  private TextBox createTextBoxForLine(int index) {
     // maybe make these dynamic text boxes? very rarely do they need to be changed, so it's probably unnecessary
-    return TextBox.create(gm.getFont(Lyrical.FONT_UI), line.text, new Rectangle(
+    return TextBox.create(gm.getFont(Lyrical.FONT_UI), song.lines.getText(index), new Rectangle(
         gm.getWidth() / 2f,
         ltbHeight,
-        ((line.end - line.begin) * gm.getWidth()) / 10000f,
+        ((song.lines.getEnd(index) - song.lines.getBegin(index)) * gm.getWidth()) / (float) timelineSpan,
         gm.getHeight() / 2f - (ltbHeight * 2)
     ), TextAlign.TOP_LEFT.value, Color.WHITE, true, null);
   }
@@ -175,29 +223,52 @@ public class Editor extends ApplicationAdapter {
     );
   }
 
+  // onsets are in audio time, which is ahead of line timestamps by the song's offset
+  private int snapToOnset(int timestamp) {
+    if (onsets == null || !snapToOnsets) {
+      return timestamp;
+    }
+    return onsets.snap(timestamp + song.metadata.offset, ONSET_SNAP_DISTANCE) - song.metadata.offset;
+  }
+
   private void moveSelectedLine(boolean left) {
     int amount = left ? -10 : 10; // default: 10ms
     if (InputUtils.isMetaKeyPressed(InputUtils.META_ALT)) {
       amount /= 10; // w/ alt: 1ms
     } else if (InputUtils.isMetaKeyPressed(InputUtils.META_SHIFT)) {
       amount *= 10; // w/ shift: 100ms
+    } else if (onsets != null && snapToOnsets) {
+      // default while snapping: jump to the previous or next onset
+      final int point = lineMoveMode == LineMoveMode.END ?
+          song.lines.getEnd(selectedLine) : song.lines.getBegin(selectedLine);
+      final int audioPoint = point + song.metadata.offset;
+      amount = (left ? onsets.before(audioPoint) : onsets.after(audioPoint)) - audioPoint;
+      if (amount == 0) {
+        return;
+      }
     }
-    Line sLine = song.lines.get(selectedLine);
+    shiftSelectedLine(amount);
+    lineMoveAmount += amount;
+    markDirty();
+  }
+
+  private void shiftSelectedLine(int amount) {
+    int begin = song.lines.getBegin(selectedLine);
+    int end = song.lines.getEnd(selectedLine);
     switch (lineMoveMode) {
       case BEGIN:
-        sLine.begin += amount;
+        begin += amount;
         break;
       case WHOLE:
-        sLine.begin += amount;
-        sLine.end += amount;
+        begin += amount;
+        end += amount;
         break;
       case END:
-        sLine.end += amount;
+        end += amount;
         break;
     }
-    lineMoveAmount += amount;
-    linesTbs.set(selectedLine, createTextBoxForLine(sLine));
-    markDirty();
+    song.lines.set(selectedLine, begin, end);
+    linesTbs.set(selectedLine, createTextBoxForLine(selectedLine));
   }
 
   private void saveSong() {
@@ -205,6 +276,7 @@ public class Editor extends ApplicationAdapter {
         song.metadata.artist + " - " + song.metadata.title + " (" + song.metadata.charter + ")"
     );
     FileHandle newDir = Reference.Files.SONGS_DIR.child(newFilePath);
+    final String oldDirName = Gdx.files.local(dirPath).name();
     if (!newDir.path().equals(dirPath)) {
       FileHandle oldDir = Gdx.files.local(dirPath);
       try {
@@ -221,11 +293,17 @@ public class Editor extends ApplicationAdapter {
       }
       dirPath = newDir.path();
     }
-    try (FileWriter writer = new FileWriter(Gdx.files.local(dirPath).child("song.ini").file())) {
-      song.save(writer);
-      writer.flush(); // need to flush before calling SongsRepository#refresh(String)
+    try {
+      song.save(Gdx.files.local(dirPath));
       System.out.println("Song saved at <" + dirPath + ">");
-      Lyrical.getInstance().getSongsRepo().refresh(newFilePath);
+      // also refresh the old directory so its entry is dropped if the song was renamed
+      Lyrical.getInstance().getSongsRepo().refresh(Arrays.asList(oldDirName, Gdx.files.local(dirPath).name()));
+      // get its preview clip ready for the song selection screen, which also picks up a moved preview point
+      SongsRepository.Snapshot snapshot = Lyrical.getInstance().getSongsRepo().getSnapshot();
+      SongsRepository.Entry entry = snapshot.songs.get(Paths.get(dirPath).toString());
+      if (entry != null) {
+        Lyrical.getInstance().getPreviewCache().request(entry, false);
+      }
       savedTbLife = 90;
       dirty = false;
     } catch (IOException e) {
@@ -258,7 +336,6 @@ public class Editor extends ApplicationAdapter {
         Path songPath = Paths.get(data.second, "song.ini");
         try {
           song = Song.readSong(songPath);
-          Song.swapWithWav(data.second, song);
         } catch (IOException e) {
           System.err.println("Could not read from <" + songPath.toString() + ">");
           e.printStackTrace();
@@ -273,14 +350,54 @@ public class Editor extends ApplicationAdapter {
           return;
         }
         song = pair.second;
-        Song.swapWithWav(pair.first, song);
         dirPath = pair.first;
       }
     } else {
       throw new RuntimeException("Transition data must be a pair (boolean, String): " + transData);
     }
 
+    Path audioPath = Paths.get(dirPath, song.metadata.filePath);
+    pinnedPaths = new ArrayList<>();
+    if (Files.isRegularFile(audioPath)) {
+      try {
+        Path wav = Lyrical.getInstance().getTranscodeCache().getPath(audioPath);
+        pinnedPaths.add(wav);
+        pinnedPaths.add(Lyrical.getInstance().getWaveformCache().getPath(wav));
+        pinnedPaths.add(Lyrical.getInstance().getOnsetCache().getPath(wav));
+        pinnedPaths.forEach(Lyrical.getInstance().getCacheManager()::pin);
+      } catch (IOException e) {
+        System.err.println("Could not pin cached audio of <" + audioPath + ">");
+        e.printStackTrace();
+      }
+    }
+    transcodeJob = Files.isRegularFile(audioPath) ?
+        Lyrical.getInstance().getTranscodeCache().transcodeInBackground(audioPath) : null;
+    transcodePercent = -1;
+    transcodeTb = DynamicTextBox.create(
+        uiFont, "",
+        new Rectangle(ePad, ePad, gm.getWidth() - (ePad * 2), gm.getHeight() - (ePad * 2)),
+        TextAlign.TOP_RIGHT.value, Color.GRAY, false, null
+    );
+
+    waveformFuture = null;
+    waveform = null;
+    wavPath = null;
+    spectrogram = null;
+    onsetsFuture = null;
+    onsets = null;
+    snapToOnsets = true;
+    alignFuture = null;
+    aligningLines = null;
+    alignTb = DynamicTextBox.create(
+        uiFont, "Timing pasted lyrics...",
+        new Rectangle(ePad, ePad, gm.getWidth() - (ePad * 2), gm.getHeight() - (ePad * 2)),
+        TextAlign.BOTTOM_RIGHT.value, Color.GRAY, false, null
+    );
+    waveformMins = new float[Math.max(1, gm.getWidth() / 2)];
+    waveformMaxs = new float[waveformMins.length];
+
     timelinePos = 0;
+    timelineSpan = DEFAULT_TIMELINE_SPAN;
     positionTb = DynamicTextBox.create(
         uiFont, "",
         new Rectangle(gm.getWidth() * 0.05f, ePad, gm.getWidth() * 0.9f - ePad, ltbHeight),
@@ -292,8 +409,10 @@ public class Editor extends ApplicationAdapter {
         TextAlign.BOTTOM_LEFT.value, Color.WHITE, false, null
     );
 
-    linesTbs = new LinkedList<>();
-    song.lines.forEach(line -> linesTbs.add(createTextBoxForLine(line)));
+    linesTbs = new ArrayList<>(song.lines.size());
+    for (int i = 0; i < song.lines.size(); i++) {
+      linesTbs.add(createTextBoxForLine(i));
+    }
 
     editingState = EditingState.BROWSING;
     selectedLine = -1;
@@ -306,7 +425,7 @@ public class Editor extends ApplicationAdapter {
     );
     updateLineEditCursor();
 
-    newInsertLine = null;
+    inserting = false;
 
     selectedSongMeta = 0;
     editingSongMeta = false;
@@ -384,6 +503,7 @@ public class Editor extends ApplicationAdapter {
       return;
     }
 
+    updateTranscode();
     if (song.isPlaying() && !song.isPaused()) {
       song.tick();
     }
@@ -423,7 +543,7 @@ public class Editor extends ApplicationAdapter {
             song.skip(song.getTimestamp() - 5000);
           } else if (editingState == EditingState.SELECT_LINE && selectedLine > 0) {
             selectedLine--;
-            song.skip(song.lines.get(selectedLine).begin);
+            song.skip(song.lines.getBegin(selectedLine));
           }
         }
       } else if (editingState == EditingState.SELECT_LINE && (Gdx.input.isKeyJustPressed(Input.Keys.UP) || Gdx.input.isKeyJustPressed(Input.Keys.DOWN))) {
@@ -440,7 +560,7 @@ public class Editor extends ApplicationAdapter {
             song.skip(song.getTimestamp() + 5000);
           } else if (editingState == EditingState.SELECT_LINE && selectedLine < song.lines.size() - 1) {
             selectedLine++;
-            song.skip(song.lines.get(selectedLine).begin);
+            song.skip(song.lines.getBegin(selectedLine));
           }
         }
       } else if (Gdx.input.isKeyJustPressed(Input.Keys.ESCAPE)) {
@@ -459,24 +579,11 @@ public class Editor extends ApplicationAdapter {
             break;
           case INSERT_LINE:
             editingState = EditingState.BROWSING;
-            newInsertLine = null;
+            inserting = false;
             break;
           case MOVE_LINE:
-            Line sLine = song.lines.get(selectedLine);
-            switch (lineMoveMode) {
-              case BEGIN:
-                sLine.begin -= lineMoveAmount;
-                break;
-              case WHOLE:
-                sLine.begin -= lineMoveAmount;
-                sLine.end -= lineMoveAmount;
-                break;
-              case END:
-                sLine.end -= lineMoveAmount;
-                break;
-            }
+            shiftSelectedLine(-lineMoveAmount);
             lineMoveAmount = 0;
-            linesTbs.set(selectedLine, createTextBoxForLine(sLine));
             editingState = EditingState.SELECT_LINE;
             markDirty();
             break;
@@ -488,8 +595,8 @@ public class Editor extends ApplicationAdapter {
             tep.setEnteringText(false);
             InputUtils.revertInputProcessor();
             String text = tep.getText().toString().replaceAll("\n", "");
-            song.lines.get(selectedLine).text = text;
-            linesTbs.set(selectedLine, createTextBoxForLine(song.lines.get(selectedLine)));
+            song.lines.setText(selectedLine, text);
+            linesTbs.set(selectedLine, createTextBoxForLine(selectedLine));
             markDirty();
             break;
           case SELECT_LINE:
@@ -497,26 +604,14 @@ public class Editor extends ApplicationAdapter {
             InputUtils.setInputProcessor(tep);
             tep.setEnteringText(true);
             tep.getText().setLength(0);
-            tep.getText().append(song.lines.get(selectedLine).text);
+            song.lines.appendText(selectedLine, tep.getText());
             tep.setCursorPos(-1);
             break;
           case BROWSING:
             if (!song.lines.isEmpty()) {
               editingState = EditingState.SELECT_LINE;
-              int s = 0;
-              int smallestDelta = Integer.MAX_VALUE;
-              for (int i = 0; i < song.lines.size(); i++) {
-                final int db = Math.abs(song.lines.get(i).begin - timelinePos);
-                final int de = Math.abs(song.lines.get(i).end - timelinePos);
-                if (db < smallestDelta || de < smallestDelta) {
-                  s = i;
-                  smallestDelta = Math.min(db, de);
-                } else {
-                  break;
-                }
-              }
-              selectedLine = s;
-              song.skip(song.lines.get(selectedLine).begin);
+              selectedLine = song.lines.nearest(timelinePos);
+              song.skip(song.lines.getBegin(selectedLine));
               if (song.isPlaying()) {
                 song.pause();
               }
@@ -525,6 +620,13 @@ public class Editor extends ApplicationAdapter {
           case MOVE_LINE:
             editingState = EditingState.SELECT_LINE;
             lineMoveAmount = 0;
+            // keep the lines sorted in case this one was moved past one of its neighbours
+            final int newIndex = song.lines.reposition(selectedLine);
+            if (newIndex != selectedLine) {
+              linesTbs.add(newIndex, linesTbs.remove(selectedLine));
+              selectedLine = newIndex;
+            }
+            song.reset();
             break;
         }
       } else if (Gdx.input.isKeyJustPressed(Input.Keys.I)) {
@@ -557,32 +659,31 @@ public class Editor extends ApplicationAdapter {
         if (editingState == EditingState.BROWSING) {
           editingState = EditingState.HELP_MENU;
         }
+      } else if (Gdx.input.isKeyJustPressed(Input.Keys.EQUALS) && editingState != EditingState.EDIT_LINE) {
+        setTimelineSpan(timelineSpan / 2);
+      } else if (Gdx.input.isKeyJustPressed(Input.Keys.MINUS) && editingState != EditingState.EDIT_LINE) {
+        setTimelineSpan(timelineSpan * 2);
+      } else if (Gdx.input.isKeyJustPressed(Input.Keys.O) && editingState != EditingState.EDIT_LINE) {
+        snapToOnsets = !snapToOnsets;
+      } else if (InputUtils.isKeyPressed(Input.Keys.V, InputUtils.META_CTRL)) {
+        if (editingState == EditingState.BROWSING) {
+          pasteLyrics();
+        }
       }
 
       if (editingState == EditingState.INSERT_LINE) {
         if (Gdx.input.isKeyPressed(Input.Keys.ENTER)) {
-          if (newInsertLine == null) {
-            newInsertLine = new Line();
-            newInsertLine.text = "";
-            newInsertLine.begin = timelinePos;
-            newInsertLine.end = timelinePos;
-          } else {
-            newInsertLine.end = timelinePos;
+          if (!inserting) {
+            inserting = true;
+            insertBegin = snapToOnset(timelinePos);
           }
+          insertEnd = snapToOnset(timelinePos);
         } else {
-          if (newInsertLine != null) {
-            int i = 0;
-            for (Line line : song.lines) {
-              if (newInsertLine.begin > line.begin) {
-                i++;
-              } else {
-                break;
-              }
-            }
-            song.lines.add(i, newInsertLine);
-            linesTbs.add(i, createTextBoxForLine(newInsertLine));
+          if (inserting) {
+            final int i = song.lines.insert(insertBegin, insertEnd, "");
+            linesTbs.add(i, createTextBoxForLine(i));
             song.reset();
-            newInsertLine = null;
+            inserting = false;
             markDirty();
           }
         }
@@ -611,33 +712,46 @@ public class Editor extends ApplicationAdapter {
         }
       }
 
+      if (waveform != null) {
+        drawWaveform(sr);
+      }
+      if (spectrogram != null) {
+        // in audio time like the waveform
+        final float viewCenter = timelinePos + song.metadata.offset;
+        sb.begin();
+        spectrogram.draw(
+            sb,
+            viewCenter - timelineSpan / 2f, viewCenter + timelineSpan / 2f,
+            0, gm.getHeight() / 2f + tlHeight + ltbHeight * 3, gm.getWidth(), ltbHeight * 3
+        );
+        sb.end();
+      }
+
       sr.setColor(Color.WHITE);
       sr.begin(ShapeRenderer.ShapeType.Filled);
-      if (timelinePos > 10000) {
-        sr.rect(0, gm.getHeight() / 2f - tlHeight, gm.getWidth(), tlHeight * 2);
-      } else {
-        float w = (timelinePos / 10000f) * gm.getWidth() / 2f;
-        sr.rect(
-            gm.getWidth() / 2f - w,
-            gm.getHeight() / 2f - tlHeight,
-            gm.getWidth() - (gm.getWidth() / 2f - w),
-            tlHeight * 2
-        );
+      final float songStartX = Math.max(0, gm.getWidth() / 2f - ((float) timelinePos * gm.getWidth()) / timelineSpan);
+      sr.rect(songStartX, gm.getHeight() / 2f - tlHeight, gm.getWidth() - songStartX, tlHeight * 2);
+      if (onsets != null && snapToOnsets) {
+        sr.setColor(Color.ORANGE);
+        final int viewBegin = timelinePos - timelineSpan / 2 + song.metadata.offset;
+        for (int i = onsets.lowerBound(viewBegin); i < onsets.size() && onsets.get(i) < viewBegin + timelineSpan; i++) {
+          final float x = ((float) (onsets.get(i) - viewBegin) * gm.getWidth()) / timelineSpan;
+          sr.rect(x - cWidth / 2, gm.getHeight() / 2f - tlHeight, cWidth, tlHeight * 2);
+        }
+        sr.setColor(Color.WHITE);
       }
       sr.rect(gm.getWidth() / 2f - tlHeight, gm.getHeight() / 2f, tlHeight * 2, ltbHeight);
 
-      if (newInsertLine != null) {
-        final float x = ((newInsertLine.begin - timelinePos) * gm.getWidth()) / 10000f + gm.getWidth() / 2f;
+      if (inserting) {
+        final float x = ((insertBegin - timelinePos) * gm.getWidth()) / (float) timelineSpan + gm.getWidth() / 2f;
         sr.rect(x, gm.getHeight() / 2f - ltbHeight * 2, gm.getWidth() / 2f - x, ltbHeight * 2);
       }
       sr.end();
 
       sb.begin();
-      Line line;
-      int i = 0;
-      for (TextBox tb : linesTbs) {
-        line = song.lines.get(i);
-        final float x = ((line.begin - timelinePos) * gm.getWidth()) / 10000f + gm.getWidth() / 2f;
+      for (int i = 0; i < linesTbs.size(); i++) {
+        TextBox tb = linesTbs.get(i);
+        final float x = ((song.lines.getBegin(i) - timelinePos) * gm.getWidth()) / (float) timelineSpan + gm.getWidth() / 2f;
         final float w = tb.outerBounds.width;
         if (x + w >= 0 && x < gm.getWidth()) {
           sb.end();
@@ -666,7 +780,6 @@ public class Editor extends ApplicationAdapter {
           sb.begin();
           gm.drawTextBox(tb, x - tb.textPosition.x, 0);
         }
-        i++;
       }
       String editModeStr;
       switch (editingState) {
@@ -692,7 +805,8 @@ public class Editor extends ApplicationAdapter {
           editModeStr = "(Unknown)";
       }
       positionTb.updateText("Position: [YELLOW]" + String.format("%.03f", (song.getTimestamp() / 1000f)) + "[] sec");
-      modeTb.updateText("Mode: [GREEN]" + editModeStr);
+      modeTb.updateText("Mode: [GREEN]" + editModeStr + (onsets == null ? "" :
+          "[]   Snap to onsets: " + (snapToOnsets ? "[GREEN]on" : "[GRAY]off")));
       gm.drawTextBox(positionTb);
       gm.drawTextBox(modeTb);
       sb.end();
@@ -819,12 +933,139 @@ public class Editor extends ApplicationAdapter {
       gm.getBatch().end();
       previewSetTbLife--;
     }
+    if (transcodeJob != null) {
+      gm.getBatch().begin();
+      gm.drawTextBox(transcodeTb);
+      gm.getBatch().end();
+    }
+    if (alignFuture != null) {
+      gm.getBatch().begin();
+      gm.drawTextBox(alignTb);
+      gm.getBatch().end();
+    }
 
   }
 
+  private void pasteLyrics() {
+    if (wavPath == null || alignFuture != null) {
+      return;
+    }
+    String contents = Gdx.app.getClipboard().getContents();
+    if (contents == null) {
+      return;
+    }
+    List<String> lines = new ArrayList<>();
+    for (String line : contents.split("\\r?\\n")) {
+      line = line.trim();
+      if (!line.isEmpty()) {
+        lines.add(line);
+      }
+    }
+    if (lines.isEmpty()) {
+      return;
+    }
+    aligningLines = lines;
+    // proposals are in audio time
+    alignFuture = LyricAligner.alignInBackground(wavPath, lines, song.lines.getLastEnd() + song.metadata.offset);
+  }
+
+  private void insertAlignedLines(LyricAligner.Proposal proposal) {
+    for (int i = 0; i < aligningLines.size(); i++) {
+      final int begin = Math.max(0, proposal.begins[i] - song.metadata.offset);
+      final int end = Math.max(begin + 1, proposal.ends[i] - song.metadata.offset);
+      final int index = song.lines.insert(begin, end, aligningLines.get(i));
+      linesTbs.add(index, createTextBoxForLine(index));
+    }
+    song.reset();
+    markDirty();
+  }
+
+  private void setTimelineSpan(int span) {
+    span = Math.max(MIN_TIMELINE_SPAN, Math.min(MAX_TIMELINE_SPAN, span));
+    if (span != timelineSpan) {
+      timelineSpan = span;
+      // line boxes are as wide as the lines are long on screen
+      for (int i = 0; i < linesTbs.size(); i++) {
+        linesTbs.set(i, createTextBoxForLine(i));
+      }
+    }
+  }
+
+  // one column per pixel pair above the timeline, whatever the zoom is
+  private void drawWaveform(ShapeRenderer sr) {
+    final int columns = waveformMins.length;
+    final float columnWidth = (float) gm.getWidth() / columns;
+    final double millisPerColumn = (double) timelineSpan / columns;
+    // peaks are in audio time, which is ahead of the timeline by the song's offset
+    final double begin = timelinePos - timelineSpan / 2.0 + song.metadata.offset;
+    waveform.getPeaks(begin, millisPerColumn, columns, waveformMins, waveformMaxs);
+    final float centerY = gm.getHeight() / 2f + tlHeight + ltbHeight * 1.5f;
+    final float amplitude = ltbHeight * 1.25f;
+    sr.setColor(Color.GRAY);
+    sr.begin(ShapeRenderer.ShapeType.Filled);
+    for (int c = 0; c < columns; c++) {
+      final float bottom = centerY + waveformMins[c] * amplitude;
+      sr.rect(c * columnWidth, bottom, columnWidth, Math.max(1, centerY + waveformMaxs[c] * amplitude - bottom));
+    }
+    sr.end();
+  }
+
+  private void updateTranscode() {
+    if (waveformFuture != null && waveformFuture.isDone()) {
+      waveform = waveformFuture.isCompletedExceptionally() ? null : waveformFuture.getNow(null);
+      waveformFuture = null;
+      if (waveform != null) {
+        spectrogram = new SpectrogramTiles(wavPath, waveform.getSampleRate(), waveform.getLengthMillis());
+      }
+    }
+    if (onsetsFuture != null && onsetsFuture.isDone()) {
+      onsets = onsetsFuture.isCompletedExceptionally() ? null : onsetsFuture.getNow(null);
+      onsetsFuture = null;
+    }
+    if (alignFuture != null && alignFuture.isDone()) {
+      LyricAligner.Proposal proposal = alignFuture.isCompletedExceptionally() ? null : alignFuture.getNow(null);
+      alignFuture = null;
+      if (proposal != null) {
+        insertAlignedLines(proposal);
+      }
+      aligningLines = null;
+    }
+    if (transcodeJob == null) {
+      return;
+    }
+    if (transcodeJob.isDone()) {
+      Path wav = transcodeJob.getResult();
+      transcodeJob = null;
+      if (wav != null) {
+        wavPath = wav;
+        waveformFuture = Lyrical.getInstance().getWaveformCache().load(wav);
+        onsetsFuture = Lyrical.getInstance().getOnsetCache().load(wav);
+        try {
+          song.replaceMusic(Gdx.audio.newMusic(Gdx.files.absolute(wav.toAbsolutePath().toString())));
+        } catch (Exception e) {
+          System.err.println("Could not load transcoded audio <" + wav + ">");
+          e.printStackTrace();
+        }
+      }
+    } else {
+      final int percent = (int) (transcodeJob.getProgress() * 100);
+      if (percent != transcodePercent) {
+        transcodePercent = percent;
+        transcodeTb.updateText("Preparing audio for precise seeking... " + percent + "%");
+      }
+    }
+  }
+
   @Override
   public void dispose() {
     song.dispose();
+    if (spectrogram != null) {
+      spectrogram.dispose();
+    }
+    if (pinnedPaths != null) {
+      pinnedPaths.forEach(Lyrical.getInstance().getCacheManager()::unpin);
+      pinnedPaths = null;
+    }
   }
 
   private enum EditingState {
@@ -10,13 +10,18 @@ import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import com.badlogic.gdx.math.Rectangle;
 import me.whizvox.lyrical.Lyrical;
 import me.whizvox.lyrical.Reference;
+import me.whizvox.lyrical.graphics.DynamicTextBox;
 import me.whizvox.lyrical.graphics.GraphicsManager;
 import me.whizvox.lyrical.graphics.TextAlign;
 import me.whizvox.lyrical.graphics.TextBox;
+import me.whizvox.lyrical.song.AudioProbe;
+import me.whizvox.lyrical.song.BatchImporter;
 import me.whizvox.lyrical.util.Pair;
 
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public class ImportScene extends ApplicationAdapter {
 
@@ -24,8 +29,20 @@ public class ImportScene extends ApplicationAdapter {
   private List<String> imports;
 
   private List<TextBox> importsTbs;
+  // duration, format and tags of each file, filled in as they're probed
+  private List<CompletableFuture<AudioProbe.Info>> importsProbes;
+  private List<DynamicTextBox> importsInfoTbs;
   private TextBox noEntriesTb;
   private int selected;
+  private int importsVersion;
+
+  private TextBox hintTb;
+
+  // only while everything in the import directory is being imported at once
+  private BatchImporter batch;
+  private DynamicTextBox batchHeaderTb;
+  private DynamicTextBox[] batchNameTbs;
+  private DynamicTextBox[] batchStatusTbs;
 
   private float ePad;
   private float lHeight;
@@ -34,17 +51,31 @@ public class ImportScene extends ApplicationAdapter {
     this.gm = gm;
     imports = new ArrayList<>();
     importsTbs = new ArrayList<>();
+    importsProbes = new ArrayList<>();
+    importsInfoTbs = new ArrayList<>();
   }
 
   public void refresh() {
+    importsVersion = Lyrical.getInstance().getLibraryWatcher().getImportsVersion();
     imports.clear();
     importsTbs.clear();
+    importsProbes.clear();
+    importsInfoTbs.clear();
+    AudioProbe audioProbe = Lyrical.getInstance().getAudioProbe();
     FileHandle[] importHandles = Reference.Files.IMPORT_DIR.list();
     for (FileHandle importHandle : importHandles) {
       final String name = importHandle.name();
+      final float y = gm.getHeight() - imports.size() * (lHeight + ePad) - lHeight;
       importsTbs.add(TextBox.create(gm.getFont(Lyrical.FONT_UI), name, new Rectangle(
-          ePad, gm.getHeight() - imports.size() * (lHeight + ePad) - lHeight, gm.getWidth() - (ePad * 2), lHeight
+          ePad, y, gm.getWidth() * 0.55f, lHeight
       ), TextAlign.LEFT.value, Color.WHITE, false, "..."));
+      // files that haven't changed since they were last listed come straight from the cache
+      importsProbes.add(audioProbe.probe(Paths.get(importHandle.path())));
+      importsInfoTbs.add(DynamicTextBox.create(
+          gm.getFont(Lyrical.FONT_UI), "",
+          new Rectangle(ePad, y, gm.getWidth() - (ePad * 2), lHeight),
+          TextAlign.RIGHT.value, Color.GRAY, false, null
+      ));
       imports.add(name);
     }
     noEntriesTb = TextBox.create(
@@ -53,7 +84,178 @@ public class ImportScene extends ApplicationAdapter {
         new Rectangle(
             0, 0, gm.getWidth(), gm.getHeight()
         ), TextAlign.CENTER.value, Color.CORAL, true, null);
-    selected = 0;
+    hintTb = TextBox.create(
+        gm.getFont(Lyrical.FONT_UI),
+        "[GRAY][[Enter][] Import and edit   [GRAY][[A][] Import all",
+        new Rectangle(ePad, ePad, gm.getWidth() - (ePad * 2), lHeight),
+        TextAlign.RIGHT.value, Color.WHITE, false, null);
+    selected = Math.max(0, Math.min(selected, imports.size() - 1));
+  }
+
+  private void startBatch() {
+    List<FileHandle> files = new ArrayList<>(imports.size());
+    for (String name : imports) {
+      files.add(Reference.Files.IMPORT_DIR.child(name));
+    }
+    // transcoding a whole import directory can easily fill the cache, so that's only done if asked for
+    final boolean transcode = Lyrical.getInstance().getSettings()
+        .getBool(Reference.Settings.IMPORT_TRANSCODE, Reference.Defaults.IMPORT_TRANSCODE);
+    batch = new BatchImporter(
+        files, transcode ? Lyrical.getInstance().getTranscodeCache() : null, Lyrical.getInstance().getCacheManager(),
+        Lyrical.getInstance().getAudioProbe(), Runtime.getRuntime().availableProcessors()
+    );
+    batchHeaderTb = DynamicTextBox.create(
+        gm.getFont(Lyrical.FONT_UI), "",
+        new Rectangle(ePad, gm.getHeight() - lHeight - ePad, gm.getWidth() - (ePad * 2), lHeight),
+        TextAlign.LEFT.value, Color.WHITE, false, "..."
+    );
+    final int rows = Math.max(1, (int) ((gm.getHeight() - ePad) / (lHeight + ePad)) - 1);
+    batchNameTbs = new DynamicTextBox[rows];
+    batchStatusTbs = new DynamicTextBox[rows];
+    for (int i = 0; i < rows; i++) {
+      final float y = gm.getHeight() - (i + 2) * (lHeight + ePad);
+      batchNameTbs[i] = DynamicTextBox.create(
+          gm.getFont(Lyrical.FONT_UI), "", new Rectangle(ePad, y, gm.getWidth() * 0.65f, lHeight),
+          TextAlign.LEFT.value, Color.WHITE, false, "..."
+      );
+      batchStatusTbs[i] = DynamicTextBox.create(
+          gm.getFont(Lyrical.FONT_UI), "", new Rectangle(ePad, y, gm.getWidth() - (ePad * 2), lHeight),
+          TextAlign.RIGHT.value, Color.WHITE, false, null
+      );
+    }
+    batch.start();
+  }
+
+  private void closeBatch() {
+    batch.dispose();
+    batch = null;
+    batchNameTbs = null;
+    batchStatusTbs = null;
+    refresh();
+  }
+
+  private void renderBatch() {
+    final boolean finished = batch.isFinished();
+    if (Gdx.input.isKeyJustPressed(Input.Keys.ESCAPE)) {
+      if (finished) {
+        closeBatch();
+        return;
+      }
+      batch.cancel();
+    } else if (Gdx.input.isKeyJustPressed(Input.Keys.ENTER) && finished) {
+      closeBatch();
+      return;
+    }
+
+    List<BatchImporter.Item> items = batch.getItems();
+    int imported = 0;
+    int failed = 0;
+    int firstUnfinished = -1;
+    for (int i = 0; i < items.size(); i++) {
+      BatchImporter.Item item = items.get(i);
+      if (item.getSongDir() != null && item.getState() != BatchImporter.State.FAILED) {
+        imported++;
+      }
+      if (item.getState() == BatchImporter.State.FAILED) {
+        failed++;
+      }
+      if (firstUnfinished == -1 && !item.isFinished()) {
+        firstUnfinished = i;
+      }
+    }
+    String header;
+    if (finished) {
+      header = "Imported [GREEN]" + imported + "[] of " + items.size() + " songs" +
+          (failed > 0 ? ", [RED]" + failed + " failed[]" : "") + "   [GRAY][[Enter][] Continue";
+    } else {
+      header = (batch.isCancelled() ? "Cancelling... " : "Importing... ") + "[GREEN]" + imported + "[] of " +
+          items.size() + " songs" + (failed > 0 ? ", [RED]" + failed + " failed[]" : "") +
+          (batch.isCancelled() ? "" : "   [GRAY][[Esc][] Cancel");
+    }
+    setText(batchHeaderTb, header);
+
+    // keep whatever's being worked on in view
+    final int rows = batchNameTbs.length;
+    final int first = Math.max(0, Math.min(
+        firstUnfinished == -1 ? items.size() : firstUnfinished - 1, items.size() - rows
+    ));
+    for (int row = 0; row < rows; row++) {
+      final int i = first + row;
+      if (i < items.size()) {
+        BatchImporter.Item item = items.get(i);
+        setText(batchNameTbs[row], item.file.name().replace("[", "[["));
+        setText(batchStatusTbs[row], getStatusText(item));
+      } else {
+        setText(batchNameTbs[row], "");
+        setText(batchStatusTbs[row], "");
+      }
+    }
+
+    SpriteBatch sb = gm.getBatch();
+    sb.begin();
+    gm.drawTextBox(batchHeaderTb);
+    for (int row = 0; row < rows; row++) {
+      gm.drawTextBox(batchNameTbs[row]);
+      gm.drawTextBox(batchStatusTbs[row]);
+    }
+    sb.end();
+  }
+
+  private static String getStatusText(BatchImporter.Item item) {
+    switch (item.getState()) {
+      case QUEUED:
+        return "[GRAY]Queued";
+      case MOVING:
+        return "[GRAY]Creating song...";
+      case TRANSCODING:
+        return "[SKY]Preparing audio... " + (int) (item.getProgress() * 100) + "%";
+      case DONE:
+        return "[GREEN]Imported";
+      case FAILED:
+        return "[RED]Failed";
+      default:
+        return item.getSongDir() != null ? "[GOLD]Imported, audio not prepared" : "[GRAY]Cancelled";
+    }
+  }
+
+  private void updateProbedInfo() {
+    for (int i = 0; i < importsProbes.size(); i++) {
+      CompletableFuture<AudioProbe.Info> probe = importsProbes.get(i);
+      if (probe != null && probe.isDone()) {
+        importsProbes.set(i, null);
+        AudioProbe.Info info = probe.isCompletedExceptionally() ? null : probe.getNow(null);
+        setText(importsInfoTbs.get(i), info == null ? "Could not read" : getInfoText(info));
+      }
+    }
+  }
+
+  private static String getInfoText(AudioProbe.Info info) {
+    StringBuilder sb = new StringBuilder();
+    if (info.artist != null || info.title != null) {
+      sb.append("[WHITE]")
+          .append(info.artist == null ? "?" : info.artist.replace("[", "[["))
+          .append(" - ")
+          .append(info.title == null ? "?" : info.title.replace("[", "[["))
+          .append("[]   ");
+    }
+    if (info.durationMillis >= 0) {
+      final long seconds = info.durationMillis / 1000;
+      sb.append(seconds / 60).append(':').append(seconds % 60 < 10 ? "0" : "").append(seconds % 60).append("   ");
+    }
+    if (info.codec != null) {
+      sb.append(info.codec.toUpperCase()).append("   ");
+    }
+    if (info.bitRate > 0) {
+      sb.append(info.bitRate / 1000).append(" kbps");
+    }
+    return sb.toString().trim();
+  }
+
+  // only lays the text out again if it actually changed
+  private static void setText(DynamicTextBox tb, String text) {
+    if (!text.equals(tb.text)) {
+      tb.updateText(text);
+    }
   }
 
   @Override
@@ -65,14 +267,21 @@ public class ImportScene extends ApplicationAdapter {
 
   @Override
   public void render() {
+    if (batch != null) {
+      renderBatch();
+      return;
+    }
     if (Gdx.input.isKeyJustPressed(Input.Keys.F5)) {
       refresh();
       selected = 0;
     } else if (Gdx.input.isKeyJustPressed(Input.Keys.ESCAPE)) {
       Lyrical.getInstance().switchScene(Lyrical.SCENE_TITLE);
       return;
+    } else if (Lyrical.getInstance().getLibraryWatcher().getImportsVersion() != importsVersion) {
+      refresh();
     }
 
+    updateProbedInfo();
     SpriteBatch sb = gm.getBatch();
     if (imports.isEmpty()) {
       sb.begin();
@@ -90,6 +299,9 @@ public class ImportScene extends ApplicationAdapter {
       } else if (Gdx.input.isKeyJustPressed(Input.Keys.ENTER)) {
         Lyrical.getInstance().switchScene(Lyrical.SCENE_EDITOR, new Pair<>(false, imports.get(selected)));
         return;
+      } else if (Gdx.input.isKeyJustPressed(Input.Keys.A)) {
+        startBatch();
+        return;
       }
       sb.begin();
       TextBox tb;
@@ -110,9 +322,19 @@ public class ImportScene extends ApplicationAdapter {
           sb.begin();
         }
         gm.drawTextBox(tb);
+        gm.drawTextBox(importsInfoTbs.get(i));
       }
+      gm.drawTextBox(hintTb);
       sb.end();
     }
   }
 
+  @Override
+  public void dispose() {
+    if (batch != null) {
+      batch.dispose();
+      batch = null;
+    }
+  }
+
 }
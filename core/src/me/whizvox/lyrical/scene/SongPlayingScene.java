@@ -11,8 +11,8 @@ import me.whizvox.lyrical.Lyrical;
 import me.whizvox.lyrical.graphics.GraphicsManager;
 import me.whizvox.lyrical.graphics.TextAlign;
 import me.whizvox.lyrical.graphics.TextBox;
-import me.whizvox.lyrical.song.Line;
 import me.whizvox.lyrical.song.Song;
+import me.whizvox.lyrical.util.Clock;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -20,23 +20,32 @@ import java.nio.file.Paths;
 
 public class SongPlayingScene extends ApplicationAdapter {
 
+  // longest the lines take to scroll over to the next one
+  private static final int MAX_LINE_CHANGE_MILLIS = 333;
+
   private GraphicsManager gm;
+  private final Clock clock;
   private Song song;
   private TextBox[] lineTbs;
   private TextBox finishedTb;
   private Texture background;
   private Rectangle bgRegion;
 
-  private final float nextLineDeltaDefault = 0.05f;
-  private float nextLineProgress;
-  private float nextLineDelta;
+  // song timestamp of when the current line came up, and how long it takes to scroll over to it
+  private int lineChangeTimestamp;
+  private int lineChangeMillis;
   private int lastIndex;
 
   private float ePad;
   private float lSpace;
 
-  public SongPlayingScene(GraphicsManager gm) {
+  public SongPlayingScene(GraphicsManager gm, Clock clock) {
     this.gm = gm;
+    this.clock = clock;
+  }
+
+  public SongPlayingScene(GraphicsManager gm) {
+    this(gm, Clock.SYSTEM);
   }
 
   @Override
@@ -53,10 +62,11 @@ public class SongPlayingScene extends ApplicationAdapter {
     );
 
     try {
-      song = Song.readSong(songPath);
+      // the song selection screen usually has the music open already
+      song = Song.readSong(songPath, clock, Lyrical.getInstance().getMusicHandoff());
       lineTbs = new TextBox[song.lines.size()];
       for (int i = 0; i < lineTbs.length; i++) {
-        lineTbs[i] = TextBox.create(gm.getFont(Lyrical.FONT_DISPLAY), song.lines.get(i).text, new Rectangle(
+        lineTbs[i] = TextBox.create(gm.getFont(Lyrical.FONT_DISPLAY), song.lines.getText(i), new Rectangle(
             0, 0, gm.getWidth(), gm.getHeight()
         ), TextAlign.CENTER.value, Color.WHITE, true, null);
       }
@@ -85,8 +95,8 @@ public class SongPlayingScene extends ApplicationAdapter {
       }
     }
 
-    nextLineProgress = 0;
-    nextLineDelta = nextLineDeltaDefault;
+    lineChangeTimestamp = 0;
+    lineChangeMillis = 0;
     lastIndex = -1;
   }
 
@@ -110,16 +120,16 @@ public class SongPlayingScene extends ApplicationAdapter {
         gm.getBatch().end();
       }
       if (!song.lines.isEmpty()) {
-        Line line = song.getCurrentLine();
-        if (line != null) {
+        if (song.isPlaying()) {
           final int I = song.getCurrentLineIndex();
           if (lastIndex != -1 && I != lastIndex) {
-            nextLineProgress = 1.0f;
-            nextLineDelta = 1000f / (song.lines.get(I).begin - song.lines.get(lastIndex).end) / 60f;
-            if (nextLineDelta < nextLineDeltaDefault) {
-              nextLineDelta = nextLineDeltaDefault;
-            }
+            // scroll over during the gap between the lines, if there is one
+            final int gap = song.lines.getBegin(I) - song.lines.getEnd(lastIndex);
+            lineChangeTimestamp = song.getTimestamp();
+            lineChangeMillis = gap < 0 ? MAX_LINE_CHANGE_MILLIS : Math.min(gap, MAX_LINE_CHANGE_MILLIS);
           }
+          final float nextLineProgress = lineChangeMillis <= 0 ? 0 :
+              Math.max(0, 1 - (float) (song.getTimestamp() - lineChangeTimestamp) / lineChangeMillis);
           TextBox tb = lineTbs[I];
           ShapeRenderer sr = gm.getShapeRenderer();
           Gdx.gl.glEnable(Gdx.gl.GL_BLEND);
@@ -154,7 +164,6 @@ public class SongPlayingScene extends ApplicationAdapter {
                 gm.drawTextBox(lineTbs[I + i], 0, -i * (lSpace * 2) + lSpace - p * (lSpace * 2));
               }
             }
-            nextLineProgress -= nextLineDelta;
           }
           gm.getBatch().end();
           lastIndex = I;
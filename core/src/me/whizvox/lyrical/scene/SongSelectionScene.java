@@ -3,40 +3,83 @@ package me.whizvox.lyrical.scene;
 import com.badlogic.gdx.ApplicationAdapter;
 import com.badlogic.gdx.Gdx;
 import com.badlogic.gdx.Input;
+import com.badlogic.gdx.InputAdapter;
+import com.badlogic.gdx.InputProcessor;
 import com.badlogic.gdx.audio.Music;
 import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.graphics.g2d.GlyphLayout;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.glutils.ShapeRenderer;
 import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.IntArray;
 import me.whizvox.lyrical.Lyrical;
 import me.whizvox.lyrical.Reference;
+import me.whizvox.lyrical.graphics.DynamicTextBox;
 import me.whizvox.lyrical.graphics.GraphicsManager;
 import me.whizvox.lyrical.graphics.TextAlign;
 import me.whizvox.lyrical.graphics.TextBox;
+import me.whizvox.lyrical.song.PreviewLoader;
 import me.whizvox.lyrical.song.Song;
+import me.whizvox.lyrical.song.SongSearchIndex;
+import me.whizvox.lyrical.song.SongSortOrders;
 import me.whizvox.lyrical.song.SongsRepository;
+import me.whizvox.lyrical.util.MathUtils;
 import me.whizvox.lyrical.util.Pair;
 
-import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
 public class SongSelectionScene extends ApplicationAdapter {
 
+  // how many rows above and below the screen get laid out ahead of time
+  private static final int ROW_MARGIN = 2;
+
   private GraphicsManager gm;
   private SpriteBatch batch;
   private ShapeRenderer srenderer;
   private SongsRepository repo;
 
-  private List<OrderedRepoEntry> orderedRepo;
-  private TextBox[] songsTbs;
+  private SongsRepository.Snapshot snapshot;
+  private SongSortOrders.Key sortKey;
+  // indexed the same way as snapshot.sortOrders
+  private List<OrderedRepoEntry> repoEntries;
+  // wrappers of the current snapshot's entries, and a spare map the next refresh fills, so a refresh only makes new
+  // wrappers for songs that were added or changed
+  private Map<SongsRepository.Entry, OrderedRepoEntry> wrappers;
+  private Map<SongsRepository.Entry, OrderedRepoEntry> nextWrappers;
+  // only the rows around the selected song have a text box, row i uses rowTbs[i % rowTbs.length]
+  private TextBox[] rowTbs;
+  // index into repoEntries of the song each text box is currently laid out for, or -1
+  private int[] rowTbSongs;
   private TextBox previewSongTb;
+  // index into visibleRows
   private int selectedSong;
+  // indices into repoEntries of the songs that match the search query, in the order they're listed
+  private IntArray visibleRows;
+  private IntArray searchResults;
+  private boolean[] searchMatches;
+  private StringBuilder searchQuery;
+  private boolean rowsChanged;
+  // laid out again only when its text actually changes, which is built in place first
+  private DynamicTextBox searchQueryTb;
+  private StringBuilder searchQueryText;
+  // whatever was handling input before the search box took over, which could be nothing
+  private InputProcessor prevInputProcessor;
+  private PreviewLoader previewLoader;
+  // owned by previewLoader, so it only ever gets stopped here
   private Music previewMusic;
   private int playPreviewMusic;
+  // ticks until the selected song's full audio is opened, so playing it doesn't have to wait on that
+  private int warmSongMusic;
+  // whether the song's music was handed off to be played, rather than left behind for nothing to use
+  private boolean handedOffSongMusic;
 
   private TextBox noSongsTb;
   
@@ -49,56 +92,160 @@ public class SongSelectionScene extends ApplicationAdapter {
     batch = gm.getBatch();
     srenderer = gm.getShapeRenderer();
     this.repo = repo;
-    orderedRepo = new ArrayList<>();
+    sortKey = SongSortOrders.Key.TITLE;
+    repoEntries = new ArrayList<>();
+    wrappers = new IdentityHashMap<>();
+    nextWrappers = new IdentityHashMap<>();
+    visibleRows = new IntArray();
+    searchResults = new IntArray();
+    searchMatches = new boolean[0];
+    searchQuery = new StringBuilder();
+    searchQueryText = new StringBuilder();
+    rowsChanged = false;
     previewMusic = null;
     playPreviewMusic = 0;
+    warmSongMusic = -1;
     selectedSong = 0;
 
     listSize = 0.7f;
   }
 
+  private OrderedRepoEntry getSelectedEntry() {
+    return selectedSong < visibleRows.size ? repoEntries.get(visibleRows.get(selectedSong)) : null;
+  }
+
   private void refresh() {
-    orderedRepo.clear();
+    OrderedRepoEntry prevSelected = getSelectedEntry();
+    final String prevSelectedDir = prevSelected == null ? null : prevSelected.dir;
+    repoEntries.clear();
+    snapshot = repo.getSnapshot();
     {
-      Map<String, Song.Metadata> repoCopy = repo.getCopy();
-      repoCopy.forEach((dir, metadata) -> {
-        OrderedRepoEntry entry = new OrderedRepoEntry();
-        entry.dir = dir;
-        entry.metadata = metadata;
-        entry.zeroLength = metadata.length == 0;
-        entry.noAudio = !Gdx.files.local(dir).child(metadata.filePath).exists();
-        orderedRepo.add(entry);
-      });
-    }
-    // sort by title, then artist if there's a conflict
-    orderedRepo.sort(Comparator.comparing(e -> e.metadata.title + e.metadata.artist));
-    songsTbs = new TextBox[orderedRepo.size()];
-    for (int i = 0; i < songsTbs.length; i++) {
-      OrderedRepoEntry e = orderedRepo.get(i);
-      Song.Metadata c = e.metadata;
-      songsTbs[i] = TextBox.create(
-          gm.getFont(Lyrical.FONT_DISPLAY),
-          c.title,
-          new Rectangle(
-              ePad,
-              gm.getHeight() - (i + 1) * textboxHeight,
-              (float)gm.getWidth() * listSize - (ePad * 2),
-              textboxHeight
-          ),
-          TextAlign.LEFT.value,
+      SongSearchIndex searchIndex = snapshot.searchIndex;
+      SongSortOrders sortOrders = snapshot.sortOrders;
+      for (int i = 0; i < sortOrders.size(); i++) {
+        SongsRepository.Entry repoEntry = sortOrders.getEntry(i);
+        OrderedRepoEntry entry = wrappers.get(repoEntry);
+        if (entry == null) {
+          entry = new OrderedRepoEntry(repoEntry);
+        }
+        entry.id = searchIndex.getId(repoEntry.dir);
+        nextWrappers.put(repoEntry, entry);
+        repoEntries.add(entry);
+      }
+      Map<SongsRepository.Entry, OrderedRepoEntry> prevWrappers = wrappers;
+      wrappers = nextWrappers;
+      nextWrappers = prevWrappers;
+      nextWrappers.clear();
+    }
+    // indices into repoEntries mean something else now
+    Arrays.fill(rowTbSongs, -1);
+    updateVisibleRows();
+    // stay on the same song if it's still around, since this also runs when the library changes in the background
+    int newSelectedSong = -1;
+    for (int i = 0; i < visibleRows.size && newSelectedSong == -1; i++) {
+      if (repoEntries.get(visibleRows.get(i)).dir.equals(prevSelectedDir)) {
+        newSelectedSong = i;
+      }
+    }
+    if (newSelectedSong == -1) {
+      selectedSong = Math.max(0, Math.min(selectedSong, visibleRows.size - 1));
+      updatePreviewTextBox(true);
+    } else {
+      selectedSong = newSelectedSong;
+      updatePreviewTextBox(false);
+    }
+    updateSearchQueryTextBox();
+  }
+
+  // doesn't allocate unless the library has grown since the last search
+  private void updateVisibleRows() {
+    visibleRows.clear();
+    if (searchQuery.length() == 0) {
+      for (int i = 0; i < repoEntries.size(); i++) {
+        visibleRows.add(snapshot.sortOrders.getIndex(sortKey, i));
+      }
+      return;
+    }
+    snapshot.searchIndex.search(searchQuery, searchResults);
+    int idLimit = 0;
+    for (int i = 0; i < searchResults.size; i++) {
+      idLimit = Math.max(idLimit, searchResults.get(i) + 1);
+    }
+    if (searchMatches.length < idLimit) {
+      searchMatches = new boolean[idLimit * 2];
+    }
+    for (int i = 0; i < searchResults.size; i++) {
+      searchMatches[searchResults.get(i)] = true;
+    }
+    for (int i = 0; i < repoEntries.size(); i++) {
+      final int index = snapshot.sortOrders.getIndex(sortKey, i);
+      final int id = repoEntries.get(index).id;
+      if (id >= 0 && id < searchMatches.length && searchMatches[id]) {
+        visibleRows.add(index);
+      }
+    }
+    for (int i = 0; i < searchResults.size; i++) {
+      searchMatches[searchResults.get(i)] = false;
+    }
+  }
+
+  /**
+   * @param row Index into visibleRows, which has to be within the window of rows that get drawn
+   * @return A text box for the row, positioned as if the list was scrolled to the top
+   */
+  private TextBox getRowTextBox(int row) {
+    final int slot = row % rowTbs.length;
+    final int song = visibleRows.get(row);
+    TextBox tb = rowTbs[slot];
+    if (rowTbSongs[slot] != song) {
+      OrderedRepoEntry e = repoEntries.get(song);
+      tb.glyphLayout.setText(
+          tb.font,
+          e.metadata.title,
+          0,
+          e.metadata.title.length(),
           (e.noAudio || e.zeroLength) ? Color.SCARLET : Color.WHITE,
+          tb.outerBounds.width,
+          TextAlign.LEFT.value,
           false,
           "..."
       );
+      rowTbSongs[slot] = song;
     }
-    updatePreviewTextBox();
+    tb.outerBounds.y = gm.getHeight() - (row + 1) * textboxHeight;
+    MathUtils.alignRectangle(
+        tb.outerBounds, tb.glyphLayout.width, tb.glyphLayout.height, TextAlign.LEFT.value, tb.textPosition
+    );
+    return tb;
   }
 
-  private void updatePreviewTextBox() {
-    if (songsTbs.length == 0) {
+  private void updateSearchQueryTextBox() {
+    StringBuilder text = searchQueryText;
+    text.setLength(0);
+    if (searchQuery.length() == 0) {
+      text.append("[GRAY]Type to search[]");
+    } else {
+      text.append("Search: [YELLOW]");
+      for (int i = 0; i < searchQuery.length(); i++) {
+        final char c = searchQuery.charAt(i);
+        text.append(c);
+        if (c == '[') {
+          text.append('[');
+        }
+      }
+      text.append("[] (").append(visibleRows.size).append(')');
+    }
+    text.append("   [GRAY]Sort ([[TAB]): []").append(sortKey.displayName);
+    if (!searchQueryTb.text.contentEquals(text)) {
+      searchQueryTb.updateText(text.toString());
+    }
+  }
+
+  private void updatePreviewTextBox(boolean restartPreviewMusic) {
+    if (visibleRows.size == 0) {
       previewSongTb = null;
     } else {
-      OrderedRepoEntry e = orderedRepo.get(selectedSong);
+      OrderedRepoEntry e = getSelectedEntry();
       Song.Metadata m = e.metadata;
       String data =
           "Title: " + m.title + '\n' +
@@ -121,12 +268,25 @@ public class SongSelectionScene extends ApplicationAdapter {
           true,
           null
       );
-      if (previewMusic != null && previewMusic.isPlaying()) {
+      if (!restartPreviewMusic) {
+        return;
+      }
+      if (previewMusic != null) {
         previewMusic.stop();
       }
       // adds a 15 tick cooldown until the preview song is played
       playPreviewMusic = 15;
+      warmSongMusic = 30;
       previewMusic = null;
+      // get the songs on either side ready too, since those are the ones that'll most likely be selected next. the
+      // selected song goes last so it ends up at the front of the preview cache's queue.
+      if (selectedSong > 0) {
+        previewLoader.prefetch(repoEntries.get(visibleRows.get(selectedSong - 1)).repoEntry);
+      }
+      if (selectedSong < visibleRows.size - 1) {
+        previewLoader.prefetch(repoEntries.get(visibleRows.get(selectedSong + 1)).repoEntry);
+      }
+      previewLoader.prefetch(e.repoEntry);
     }
   }
 
@@ -134,7 +294,51 @@ public class SongSelectionScene extends ApplicationAdapter {
   public void create() {
     textboxHeight = gm.getHeight() / 15f;
     ePad = gm.getWidth() / 120f;
+    final int halfScreenRows = (int) Math.ceil(gm.getHeight() / 2f / textboxHeight);
+    BitmapFont font = gm.getFont(Lyrical.FONT_DISPLAY);
+    rowTbs = new TextBox[(halfScreenRows + ROW_MARGIN) * 2 + 1];
+    for (int i = 0; i < rowTbs.length; i++) {
+      rowTbs[i] = new TextBox(
+          font,
+          new GlyphLayout(),
+          new Rectangle(ePad, 0, (float)gm.getWidth() * listSize - (ePad * 2), textboxHeight),
+          new Vector2()
+      );
+    }
+    rowTbSongs = new int[rowTbs.length];
+    if (previewLoader == null) {
+      previewLoader = new PreviewLoader(Lyrical.getInstance().getPreviewCache());
+    }
+    searchQuery.setLength(0);
+    searchQueryTb = DynamicTextBox.create(
+        gm.getFont(Lyrical.FONT_UI),
+        "",
+        new Rectangle(ePad, ePad, (float)gm.getWidth() * listSize - (ePad * 2), textboxHeight),
+        TextAlign.LEFT.value,
+        Color.WHITE,
+        false,
+        "..."
+    );
+    rowsChanged = false;
+    selectedSong = 0;
+    handedOffSongMusic = false;
     refresh();
+    prevInputProcessor = Gdx.input.getInputProcessor();
+    Gdx.input.setInputProcessor(new InputAdapter() {
+      @Override
+      public boolean keyTyped(char c) {
+        if (c == '\b') {
+          if (searchQuery.length() > 0) {
+            searchQuery.setLength(searchQuery.length() - 1);
+            rowsChanged = true;
+          }
+        } else if (c >= ' ' && c != 127) {
+          searchQuery.append(c);
+          rowsChanged = true;
+        }
+        return true;
+      }
+    });
     noSongsTb = TextBox.create(gm.getFont(Lyrical.FONT_UI), "No songs found!\nCheck the [WHITE]/songs[] folder and press [GRAY][[F5][] to refresh.", new Rectangle(
         0, 0, gm.getWidth(), gm.getHeight()
     ), TextAlign.CENTER.value, Color.CORAL, false, null);
@@ -143,64 +347,102 @@ public class SongSelectionScene extends ApplicationAdapter {
   @Override
   public void render() {
     if (Gdx.input.isKeyJustPressed(Input.Keys.ESCAPE)) {
-      Lyrical.getInstance().switchScene(Lyrical.SCENE_TITLE);
-      return;
+      if (searchQuery.length() > 0) {
+        searchQuery.setLength(0);
+        rowsChanged = true;
+      } else {
+        Lyrical.getInstance().switchScene(Lyrical.SCENE_TITLE);
+        return;
+      }
     } else if (Gdx.input.isKeyJustPressed(Input.Keys.F5)) {
-      try {
-        repo.refresh();
-        refresh();
-      } catch (IOException e) {
-        System.err.println("Could not refresh songs list");
-        e.printStackTrace();
+      // picked up below once it's done
+      repo.refreshInBackground();
+    } else if (Gdx.input.isKeyJustPressed(Input.Keys.TAB)) {
+      sortKey = sortKey.next();
+      rowsChanged = true;
+    } else if (repo.getSnapshot() != snapshot) {
+      refresh();
+    }
+    if (rowsChanged) {
+      rowsChanged = false;
+      OrderedRepoEntry prevSelected = getSelectedEntry();
+      updateVisibleRows();
+      // keep the selection on the same song if it's still listed, otherwise jump to the top
+      int newSelectedSong = 0;
+      if (prevSelected != null) {
+        for (int i = 0; i < visibleRows.size; i++) {
+          if (repoEntries.get(visibleRows.get(i)) == prevSelected) {
+            newSelectedSong = i;
+            break;
+          }
+        }
       }
+      selectedSong = newSelectedSong;
+      updatePreviewTextBox(getSelectedEntry() != prevSelected);
+      updateSearchQueryTextBox();
     }
 
-    if (orderedRepo.isEmpty()) {
+    if (repoEntries.isEmpty()) {
       batch.begin();
       gm.drawTextBox(noSongsTb);
       batch.end();
     } else {
-      if (playPreviewMusic < 0 && previewMusic == null) {
-        Song.Metadata c = orderedRepo.get(selectedSong).metadata;
-        FileHandle songFilePath = Gdx.files.internal(orderedRepo.get(selectedSong).dir).child(c.filePath);
-        if (songFilePath.exists() && !songFilePath.isDirectory()) {
+      OrderedRepoEntry selected = getSelectedEntry();
+      if (selected == null) {
+        // nothing matches the search query
+      } else if (playPreviewMusic < 0 && previewMusic == null) {
+        previewMusic = previewLoader.open(selected.repoEntry);
+        if (previewMusic == null) {
+          // check again in a bit, the clip might be cut or loaded by then
+          playPreviewMusic = 5;
+        } else {
           try {
-            previewMusic = Gdx.audio.newMusic(songFilePath);
+            if (previewMusic.getPosition() > 0) {
+              previewMusic.setPosition(0);
+            }
             previewMusic.play();
             previewMusic.setVolume(Lyrical.getInstance().getSettings().getInt(Reference.Settings.MUSIC_VOLUME, Reference.Defaults.MUSIC_VOLUME) / 100f);
-            // TODO Skipping in preview music causes a lot of lag. Maybe create a bunch of small .wavs for previews?
-            //previewMusic.setPosition((float) c.previewTimestamp / 1000);
           } catch (Exception e) {
-            System.err.println("Could not load and/or play the following file <" + songFilePath.path() + ">");
+            System.err.println("Could not play preview music for <" + selected.dir + ">");
             e.printStackTrace();
+            playPreviewMusic = Integer.MAX_VALUE;
           }
         }
       } else {
         playPreviewMusic--;
       }
+      if (selected != null && warmSongMusic >= 0 && warmSongMusic-- == 0) {
+        warmSongMusic(selected);
+      }
 
-      if (Gdx.input.isKeyJustPressed(Input.Keys.DOWN)) {
-        if (++selectedSong >= orderedRepo.size()) {
+      if (selected == null) {
+        // nothing to select
+      } else if (Gdx.input.isKeyJustPressed(Input.Keys.DOWN)) {
+        if (++selectedSong >= visibleRows.size) {
           selectedSong = 0;
         }
-        updatePreviewTextBox();
+        updatePreviewTextBox(true);
       } else if (Gdx.input.isKeyJustPressed(Input.Keys.UP)) {
         if (--selectedSong < 0) {
-          selectedSong = orderedRepo.size() - 1;
+          selectedSong = visibleRows.size - 1;
         }
-        updatePreviewTextBox();
+        updatePreviewTextBox(true);
       } else if (Gdx.input.isKeyJustPressed(Input.Keys.ENTER)) {
-        Lyrical.getInstance().switchScene(Lyrical.SCENE_PLAYING, orderedRepo.get(selectedSong).dir);
+        handOffSongMusic(selected);
+        Lyrical.getInstance().switchScene(Lyrical.SCENE_PLAYING, selected.dir);
         return;
       } else if (Gdx.input.isKeyJustPressed(Input.Keys.F1)) {
-        Lyrical.getInstance().switchScene(Lyrical.SCENE_EDITOR, new Pair<>(true, orderedRepo.get(selectedSong).dir));
+        Lyrical.getInstance().switchScene(Lyrical.SCENE_EDITOR, new Pair<>(true, selected.dir));
         return;
       }
 
       float yoff = selectedSong * textboxHeight - gm.getHeight() / 2f;
+      final int windowRows = rowTbs.length / 2;
+      final int firstRow = Math.max(0, selectedSong - windowRows);
+      final int lastRow = Math.min(visibleRows.size - 1, selectedSong + windowRows);
       batch.begin();
-      for (int i = 0; i < songsTbs.length; i++) {
-        TextBox tb = songsTbs[i];
+      for (int i = firstRow; i <= lastRow; i++) {
+        TextBox tb = getRowTextBox(i);
         if (tb.textPosition.y + yoff <= gm.getHeight() + textboxHeight && tb.textPosition.y + yoff >= -textboxHeight) {
           if (i == selectedSong) {
             batch.end();
@@ -221,32 +463,66 @@ public class SongSelectionScene extends ApplicationAdapter {
       if (previewSongTb != null) {
         gm.drawTextBox(previewSongTb);
       }
+      gm.drawTextBox(searchQueryTb);
       batch.end();
     }
   }
 
+  private static FileHandle getAudioFile(OrderedRepoEntry entry) {
+    return Gdx.files.local(Paths.get(entry.dir).resolve(entry.metadata.filePath).toString());
+  }
+
+  private void warmSongMusic(OrderedRepoEntry entry) {
+    // without a clip, the preview is already the whole song, and gets handed off as is
+    if (entry.repoEntry.audioExists && !Lyrical.getInstance().getPreviewCache().hasFailed(entry.repoEntry)) {
+      Lyrical.getInstance().getMusicHandoff().warm(getAudioFile(entry));
+    }
+  }
+
+  private void handOffSongMusic(OrderedRepoEntry entry) {
+    Music music = previewLoader.release(entry.repoEntry);
+    if (music != null) {
+      if (music == previewMusic) {
+        previewMusic = null;
+      }
+      Lyrical.getInstance().getMusicHandoff().offer(getAudioFile(entry), music);
+    }
+    // otherwise it's been read ahead of time if it was selected long enough, or is opened from disk like before
+    handedOffSongMusic = true;
+  }
+
   @Override
   public void dispose() {
+    Gdx.input.setInputProcessor(prevInputProcessor);
+    prevInputProcessor = null;
     if (previewMusic != null) {
-      if (previewMusic.isPlaying()) {
-        previewMusic.stop();
-      }
-      previewMusic.dispose();
+      previewMusic.stop();
+      previewMusic = null;
+    }
+    if (previewLoader != null) {
+      previewLoader.closeAll();
+    }
+    if (!handedOffSongMusic) {
+      // so the audio isn't held open while the song is edited and its directory maybe renamed
+      Lyrical.getInstance().getMusicHandoff().clear();
     }
   }
 
   private static class OrderedRepoEntry {
-    String dir;
-    Song.Metadata metadata;
-    boolean zeroLength;
-    boolean noAudio;
-    OrderedRepoEntry(String dir, Song.Metadata metadata, boolean zeroLength, boolean noAudio) {
-      this.dir = dir;
-      this.metadata = metadata;
-      this.zeroLength = zeroLength;
-      this.noAudio = noAudio;
-    }
-    OrderedRepoEntry() {
+    final SongsRepository.Entry repoEntry;
+    final String dir;
+    // id in the repository's search index, or -1 if it wasn't indexed yet
+    int id;
+    final Song.Metadata metadata;
+    final boolean zeroLength;
+    final boolean noAudio;
+    OrderedRepoEntry(SongsRepository.Entry repoEntry) {
+      this.repoEntry = repoEntry;
+      dir = repoEntry.dir;
+      id = -1;
+      metadata = repoEntry.metadata;
+      zeroLength = repoEntry.metadata.length == 0;
+      noAudio = !repoEntry.audioExists;
     }
   }
 
@@ -0,0 +1,102 @@
+package me.whizvox.lyrical.song;
+
+import me.whizvox.lyrical.util.Clock;
+
+/**
+ * Keeps track of how far into its audio a song is, in milliseconds.
+ * <br>
+ * The audio backend only moves its reported position forward each time it hands more audio to the device, so reading
+ * it directly makes timing jittery, while counting wall-clock time from when playback started slowly drifts away from
+ * what's actually being heard. This does both: between position updates it interpolates with a {@link Clock}, and each
+ * time the reported position changes, it steers a fraction of the way toward it. Small corrections never make the time
+ * go backwards, and big differences (like after the audio stalls) are snapped to straight away.
+ */
+public class AudioClock {
+
+  // differences bigger than this aren't drift, so they're snapped to instead of smoothed out
+  private static final double SNAP_MILLIS = 120;
+  // how much of the difference is corrected each time the audio position changes
+  private static final double CORRECTION = 0.15;
+
+  private final Clock clock;
+  private boolean running;
+  private double anchorMillis;
+  private long anchorNanos;
+  private float lastAudioSeconds;
+  private double lastMillis;
+
+  public AudioClock(Clock clock) {
+    this.clock = clock;
+    running = false;
+    reset(0);
+  }
+
+  /**
+   * Jumps straight to a position, like after seeking. Doesn't change whether the clock is running.
+   */
+  public void reset(double millis) {
+    anchorMillis = millis;
+    anchorNanos = clock.nanoTime();
+    lastAudioSeconds = -1;
+    lastMillis = millis;
+  }
+
+  public void start() {
+    if (!running) {
+      anchorNanos = clock.nanoTime();
+      running = true;
+    }
+  }
+
+  public void stop() {
+    if (running) {
+      anchorMillis = extrapolate(clock.nanoTime());
+      running = false;
+    }
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * @return The current position without taking the audio into account
+   */
+  public double getMillis() {
+    return Math.max(lastMillis, extrapolate(clock.nanoTime()));
+  }
+
+  /**
+   * @param audioSeconds What the audio reports as its position, or a negative number if it isn't playing anymore (like
+   *                     once it reaches the end), in which case the clock keeps counting on its own
+   * @return The current position
+   */
+  public double update(float audioSeconds) {
+    final long now = clock.nanoTime();
+    double millis = extrapolate(now);
+    boolean snapped = false;
+    if (running && audioSeconds >= 0 && audioSeconds != lastAudioSeconds) {
+      lastAudioSeconds = audioSeconds;
+      final double error = audioSeconds * 1000.0 - millis;
+      if (Math.abs(error) > SNAP_MILLIS) {
+        millis += error;
+        snapped = true;
+      } else {
+        millis += error * CORRECTION;
+      }
+      anchorMillis = millis;
+      anchorNanos = now;
+    }
+    if (!snapped && millis < lastMillis) {
+      // hold still until the correction catches up rather than going backwards
+      millis = lastMillis;
+    }
+    lastMillis = millis;
+    return millis;
+  }
+
+  private double extrapolate(long now) {
+    return running ? anchorMillis + (now - anchorNanos) / 1_000_000.0 : anchorMillis;
+  }
+
+}
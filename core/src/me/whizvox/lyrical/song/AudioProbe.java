@@ -0,0 +1,203 @@
+package me.whizvox.lyrical.song;
+
+import com.badlogic.gdx.utils.Disposable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads the duration, codec, bitrate and title and artist tags of audio files with ffprobe, so they can be shown before
+ * a file is imported and used to fill in the new song's metadata.
+ * <br>
+ * Files are probed in parallel on one thread per core. Results are kept for as long as the game is running, keyed by
+ * path, and are only reused while the file's size and last modified time haven't changed.
+ */
+public class AudioProbe implements Disposable {
+
+  private final ExecutorService executor;
+  // keyed by absolute path, holds finished and running probes alike
+  private final Map<Path, Entry> entries;
+
+  public AudioProbe() {
+    executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+      Thread thread = new Thread(r, "Audio probe");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.NORM_PRIORITY - 1);
+      return thread;
+    });
+    entries = new HashMap<>();
+  }
+
+  /**
+   * Probes a file in the background, unless it was already probed since it was last changed. The future completes with
+   * null if the file couldn't be probed.
+   */
+  public synchronized CompletableFuture<Info> probe(Path file) {
+    Path absFile = file.toAbsolutePath().normalize();
+    final long size;
+    final long modified;
+    try {
+      BasicFileAttributes attrs = Files.readAttributes(absFile, BasicFileAttributes.class);
+      size = attrs.size();
+      modified = attrs.lastModifiedTime().toMillis();
+    } catch (IOException e) {
+      return CompletableFuture.completedFuture(null);
+    }
+    Entry entry = entries.get(absFile);
+    if (entry != null && entry.size == size && entry.modified == modified) {
+      return entry.future;
+    }
+    CompletableFuture<Info> future = CompletableFuture.supplyAsync(() -> {
+      try {
+        return run(absFile);
+      } catch (IOException | InterruptedException e) {
+        System.err.println("Could not probe <" + absFile + ">");
+        e.printStackTrace();
+        return null;
+      }
+    }, executor);
+    entries.put(absFile, new Entry(size, modified, future));
+    return future;
+  }
+
+  /**
+   * @return What's known about a file so far, or null if it hasn't finished being probed or has changed since
+   */
+  public synchronized Info getIfDone(Path file) {
+    Path absFile = file.toAbsolutePath().normalize();
+    Entry entry = entries.get(absFile);
+    if (entry == null || !entry.future.isDone() || entry.future.isCompletedExceptionally()) {
+      return null;
+    }
+    try {
+      BasicFileAttributes attrs = Files.readAttributes(absFile, BasicFileAttributes.class);
+      if (attrs.size() != entry.size || attrs.lastModifiedTime().toMillis() != entry.modified) {
+        return null;
+      }
+    } catch (IOException e) {
+      return null;
+    }
+    return entry.future.getNow(null);
+  }
+
+  private static Info run(Path file) throws IOException, InterruptedException {
+    String[] cmd = {
+        "ffprobe",
+        "-v",
+        "error",
+        "-select_streams",
+        "a:0",
+        "-show_entries",
+        "format=duration,bit_rate:format_tags=title,artist:stream=codec_name:stream_tags=title,artist",
+        "-of",
+        "default=noprint_wrappers=1",
+        file.toString()
+    };
+    Process exec = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+    Info info = new Info();
+    StringBuilder output = new StringBuilder();
+    try {
+      try (BufferedReader reader =
+               new BufferedReader(new InputStreamReader(exec.getInputStream(), StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          output.append('\t').append(line).append('\n');
+          final int equals = line.indexOf('=');
+          if (equals != -1) {
+            // tags come out as TAG:title=..., in whatever case the file has them in
+            parseEntry(info, line.substring(0, equals).toLowerCase(), line.substring(equals + 1).trim());
+          }
+        }
+      }
+      final int exitValue = exec.waitFor();
+      if (exitValue != 0) {
+        System.out.print("\t-- FFPROBE OUTPUT --\n" + output);
+        throw new IOException("ffprobe could not probe <" + file + ">, exit value " + exitValue);
+      }
+    } finally {
+      if (exec.isAlive()) {
+        exec.destroy();
+      }
+    }
+    return info;
+  }
+
+  private static void parseEntry(Info info, String key, String value) {
+    try {
+      switch (key) {
+        case "duration":
+          info.durationMillis = Math.round(Double.parseDouble(value) * 1000);
+          break;
+        case "bit_rate":
+          info.bitRate = Integer.parseInt(value);
+          break;
+        case "codec_name":
+          info.codec = value;
+          break;
+        case "tag:title":
+          // Ogg files keep their tags on the stream rather than the container, so whichever comes first will do
+          if (info.title == null && !value.isEmpty()) {
+            info.title = value;
+          }
+          break;
+        case "tag:artist":
+          if (info.artist == null && !value.isEmpty()) {
+            info.artist = value;
+          }
+          break;
+      }
+    } catch (NumberFormatException e) {
+      // N/A for formats that don't have it
+    }
+  }
+
+  @Override
+  public void dispose() {
+    executor.shutdownNow();
+  }
+
+  private static class Entry {
+    final long size;
+    final long modified;
+    final CompletableFuture<Info> future;
+    Entry(long size, long modified, CompletableFuture<Info> future) {
+      this.size = size;
+      this.modified = modified;
+      this.future = future;
+    }
+  }
+
+  /**
+   * What ffprobe found out about a file. Anything it couldn't find is left as -1 or null.
+   */
+  public static class Info {
+    public long durationMillis = -1;
+    public int bitRate = -1;
+    public String codec;
+    public String title;
+    public String artist;
+
+    /**
+     * Fills in a song's title and artist from the file's tags, if it has them.
+     */
+    public void applyTo(Song.Metadata metadata) {
+      if (title != null) {
+        metadata.title = title;
+      }
+      if (artist != null) {
+        metadata.artist = artist;
+      }
+    }
+  }
+
+}
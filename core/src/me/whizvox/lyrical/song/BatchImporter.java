@@ -0,0 +1,225 @@
+package me.whizvox.lyrical.song;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Disposable;
+import me.whizvox.lyrical.util.Pair;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports a batch of files at once, each on one of a fixed number of worker threads.
+ * <br>
+ * Every file is moved into its own song directory with a song.ini filled in from its tags, the same as importing it
+ * through the editor. If there's a {@link TranscodeCache} to use, it's then transcoded so it's ready for precise seeking
+ * the first time it's edited. The WAVs are pinned in the {@link CacheManager} until the batch is disposed, so a big batch
+ * doesn't evict its own transcodes before it's done. Each file's progress is kept in an {@link Item}, which the render
+ * thread can poll without blocking.
+ * <br>
+ * Cancelling leaves files that haven't been started in the import directory and stops any transcodes that are running.
+ * Songs that were already created are kept, and their audio is just transcoded later when they're opened.
+ */
+public class BatchImporter implements Disposable {
+
+  private final TranscodeCache transcodeCache;
+  private final CacheManager cacheManager;
+  private final AudioProbe audioProbe;
+  private final List<Item> items;
+  private final ExecutorService executor;
+  private final List<Future<?>> futures;
+  private final List<Path> pinnedPaths;
+  private volatile boolean cancelled;
+  // guarded by pinnedPaths
+  private boolean disposed;
+
+  /**
+   * @param transcodeCache Where to transcode the imported songs' audio, or null to leave that until they're opened
+   */
+  public BatchImporter(List<FileHandle> files, TranscodeCache transcodeCache, CacheManager cacheManager,
+                       AudioProbe audioProbe, int threads) {
+    this.transcodeCache = transcodeCache;
+    this.cacheManager = cacheManager;
+    this.audioProbe = audioProbe;
+    List<Item> items = new ArrayList<>(files.size());
+    for (FileHandle file : files) {
+      items.add(new Item(file));
+    }
+    this.items = Collections.unmodifiableList(items);
+    executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+      Thread thread = new Thread(r, "Batch import");
+      thread.setDaemon(true);
+      // ffmpeg does the heavy lifting in its own process, but keep the UI ahead of the bookkeeping anyway
+      thread.setPriority(Thread.NORM_PRIORITY - 1);
+      return thread;
+    });
+    futures = new ArrayList<>(items.size());
+    pinnedPaths = new ArrayList<>();
+    cancelled = false;
+    disposed = false;
+  }
+
+  /**
+   * Starts importing every file, in order.
+   */
+  public void start() {
+    for (Item item : items) {
+      futures.add(executor.submit(() -> importItem(item)));
+    }
+    executor.shutdown();
+  }
+
+  private void importItem(Item item) {
+    if (cancelled) {
+      item.state = State.CANCELLED;
+      return;
+    }
+    item.state = State.MOVING;
+    Pair<String, Song> pair;
+    try {
+      // usually probed already while the file was listed, and the tags fill in the title and artist
+      AudioProbe.Info info = audioProbe.probe(Paths.get(item.file.path())).join();
+      pair = Song.importSong(item.file, info);
+    } catch (RuntimeException e) {
+      System.err.println("Could not import <" + item.file.path() + ">");
+      e.printStackTrace();
+      item.state = State.FAILED;
+      return;
+    }
+    if (pair == null) {
+      // removed from the import directory since the batch started
+      item.state = State.FAILED;
+      return;
+    }
+    item.songDir = pair.first;
+    if (transcodeCache == null) {
+      item.state = State.DONE;
+      return;
+    }
+    if (Thread.currentThread().isInterrupted()) {
+      item.state = State.CANCELLED;
+      return;
+    }
+    item.state = State.TRANSCODING;
+    try {
+      Path source = Paths.get(pair.first, pair.second.metadata.filePath);
+      pin(transcodeCache.getPath(source));
+      transcodeCache.getOrTranscode(source, progress -> item.progress = (float) progress);
+      item.state = State.DONE;
+    } catch (InterruptedException e) {
+      // the song is still there, its audio is just prepared later
+      item.state = State.CANCELLED;
+    } catch (Exception e) {
+      System.err.println("Could not transcode imported song <" + pair.first + ">");
+      e.printStackTrace();
+      item.state = State.FAILED;
+    }
+  }
+
+  private void pin(Path wav) {
+    synchronized (pinnedPaths) {
+      if (!disposed) {
+        cacheManager.pin(wav);
+        pinnedPaths.add(wav);
+      }
+    }
+  }
+
+  public List<Item> getItems() {
+    return items;
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * @return Whether every file has either been imported, failed, or been cancelled
+   */
+  public boolean isFinished() {
+    for (Item item : items) {
+      if (!item.isFinished()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stops the batch. Files that haven't been started are left where they are, and running transcodes are stopped.
+   */
+  public void cancel() {
+    cancelled = true;
+    for (int i = 0; i < futures.size(); i++) {
+      if (futures.get(i).cancel(true) && items.get(i).state == State.QUEUED) {
+        // never got to run
+        items.get(i).state = State.CANCELLED;
+      }
+    }
+  }
+
+  @Override
+  public void dispose() {
+    cancel();
+    executor.shutdownNow();
+    synchronized (pinnedPaths) {
+      disposed = true;
+      pinnedPaths.forEach(cacheManager::unpin);
+      pinnedPaths.clear();
+    }
+  }
+
+  public enum State {
+    QUEUED,
+    MOVING,
+    TRANSCODING,
+    DONE,
+    FAILED,
+    CANCELLED
+  }
+
+  /**
+   * A single file in the batch. Everything here can be read from any thread.
+   */
+  public static class Item {
+    public final FileHandle file;
+    private volatile State state;
+    private volatile float progress;
+    private volatile String songDir;
+
+    private Item(FileHandle file) {
+      this.file = file;
+      state = State.QUEUED;
+      progress = 0;
+      songDir = null;
+    }
+
+    public State getState() {
+      return state;
+    }
+
+    /**
+     * @return How far along the transcode is, from 0 to 1
+     */
+    public float getProgress() {
+      return progress;
+    }
+
+    /**
+     * @return The directory of the song that was created, or null if it hasn't been yet
+     */
+    public String getSongDir() {
+      return songDir;
+    }
+
+    public boolean isFinished() {
+      return state == State.DONE || state == State.FAILED || state == State.CANCELLED;
+    }
+  }
+
+}
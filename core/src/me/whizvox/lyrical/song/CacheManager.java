@@ -0,0 +1,257 @@
+package me.whizvox.lyrical.song;
+
+import com.badlogic.gdx.utils.Disposable;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps everything in the cache directory under a size budget by deleting whatever was used least recently.
+ * <br>
+ * Transcodes, onsets, preview clips and waveform peaks can all be made again from a song's audio, so they're fair game.
+ * The caches that make them call {@link #added(Path)} whenever one is written and {@link #touch(Path)} whenever one is
+ * used, and the time it was last used is kept as the file's last modified time, so it carries over between runs. None
+ * of the caches look at their own files' modified times, only at what's in them.
+ * <br>
+ * Compiled charts and the library index are counted towards the budget but never deleted. Charts sit in the song
+ * directories and are only written when a song is saved, and the index is rewritten every scan anyway.
+ * <br>
+ * Trimming happens on a background thread, once a minute and shortly after anything new is cached. Files used in the
+ * last few minutes are left alone even when over budget. Anything that's kept open or read again for as long as
+ * something is using it, like the WAV of the song in the editor, should be {@link #pin(Path) pinned} until it's done
+ * with, since being used once doesn't keep it safe for longer than that.
+ */
+public class CacheManager implements Disposable {
+
+  private static final long
+      TRIM_INTERVAL_SECONDS = 60,
+      TRIM_DELAY_SECONDS = 5,
+      MIN_IDLE_MILLIS = 5 * 60 * 1000;
+
+  private final Path cacheDir;
+  private final Path songsDir;
+  private final Path libraryIndex;
+  private final long budgetBytes;
+  private final ScheduledExecutorService executor;
+  // files used since the last trim, and when, which are only written to disk by the trimming thread
+  private final Map<Path, Long> touched;
+  // how many times each file is pinned
+  private final Map<Path, Integer> pinned;
+  private final AtomicBoolean trimQueued;
+
+  private volatile long totalBytes;
+
+  /**
+   * @param budgetBytes How big the cache is allowed to get, or 0 or less for no limit
+   */
+  public CacheManager(Path cacheDir, Path songsDir, Path libraryIndex, long budgetBytes) {
+    this.cacheDir = cacheDir.toAbsolutePath().normalize();
+    this.songsDir = songsDir.toAbsolutePath().normalize();
+    this.libraryIndex = libraryIndex.toAbsolutePath().normalize();
+    this.budgetBytes = budgetBytes;
+    executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "Cache manager");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+    touched = new ConcurrentHashMap<>();
+    pinned = new ConcurrentHashMap<>();
+    trimQueued = new AtomicBoolean(false);
+    totalBytes = 0;
+  }
+
+  public void start() {
+    executor.scheduleWithFixedDelay(this::trim, TRIM_DELAY_SECONDS, TRIM_INTERVAL_SECONDS, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Marks a cached file as just used. This doesn't touch the disk, so it can be called from any thread, including the
+   * render thread.
+   */
+  public void touch(Path file) {
+    touched.put(file.toAbsolutePath().normalize(), System.currentTimeMillis());
+  }
+
+  /**
+   * Keeps a cached file from being evicted until it's unpinned as many times as it was pinned. It doesn't have to exist
+   * yet. Like {@link #touch(Path)}, this can be called from any thread.
+   */
+  public void pin(Path file) {
+    pinned.merge(file.toAbsolutePath().normalize(), 1, Integer::sum);
+  }
+
+  /**
+   * Lets a pinned file be evicted again, once it's unpinned as many times as it was pinned. It counts as just used.
+   */
+  public void unpin(Path file) {
+    Path absFile = file.toAbsolutePath().normalize();
+    pinned.computeIfPresent(absFile, (path, count) -> count > 1 ? count - 1 : null);
+    touch(absFile);
+  }
+
+  /**
+   * Marks a file as just written to the cache, and trims the cache shortly if there's a budget to keep to.
+   */
+  public void added(Path file) {
+    touch(file);
+    if (budgetBytes > 0 && trimQueued.compareAndSet(false, true)) {
+      try {
+        executor.schedule(this::trim, TRIM_DELAY_SECONDS, TimeUnit.SECONDS);
+      } catch (RuntimeException e) {
+        // disposed
+      }
+    }
+  }
+
+  /**
+   * @return How big everything in the cache was the last time it was trimmed
+   */
+  public long getTotalBytes() {
+    return totalBytes;
+  }
+
+  public long getBudgetBytes() {
+    return budgetBytes;
+  }
+
+  private void trim() {
+    trimQueued.set(false);
+    try {
+      flushTouched();
+      List<Artifact> artifacts = new ArrayList<>();
+      final long pinnedBytes = scan(artifacts);
+      long total = pinnedBytes;
+      for (Artifact artifact : artifacts) {
+        total += artifact.size;
+      }
+      if (budgetBytes > 0 && total > budgetBytes) {
+        artifacts.sort((a, b) -> Long.compare(a.lastUsed, b.lastUsed));
+        final long idleBefore = System.currentTimeMillis() - MIN_IDLE_MILLIS;
+        int deleted = 0;
+        long freed = 0;
+        for (Artifact artifact : artifacts) {
+          if (total <= budgetBytes || artifact.lastUsed > idleBefore) {
+            break;
+          }
+          // could have been used or pinned since the scan
+          if (touched.containsKey(artifact.path) || pinned.containsKey(artifact.path)) {
+            continue;
+          }
+          try {
+            if (Files.deleteIfExists(artifact.path)) {
+              total -= artifact.size;
+              freed += artifact.size;
+              deleted++;
+            }
+          } catch (IOException e) {
+            // probably still open, like a WAV that's being played on Windows
+            System.err.println("Could not evict cached file <" + artifact.path + ">");
+            e.printStackTrace();
+          }
+        }
+        System.out.println("Evicted " + deleted + " cached files (" + (freed >> 20) + " MB), cache is now " +
+            (total >> 20) + " of " + (budgetBytes >> 20) + " MB");
+      }
+      totalBytes = total;
+    } catch (IOException e) {
+      System.err.println("Could not trim cache directory <" + cacheDir + ">");
+      e.printStackTrace();
+    } catch (RuntimeException e) {
+      // an exception would stop the scheduled trims for good
+      System.err.println("Could not trim cache directory <" + cacheDir + ">");
+      e.printStackTrace();
+    }
+  }
+
+  // writes last used times to disk as modified times
+  private void flushTouched() {
+    Iterator<Map.Entry<Path, Long>> it = touched.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Path, Long> entry = it.next();
+      it.remove();
+      try {
+        Files.setLastModifiedTime(entry.getKey(), FileTime.fromMillis(entry.getValue()));
+      } catch (NoSuchFileException e) {
+        // removed since
+      } catch (IOException e) {
+        System.err.println("Could not mark cached file <" + entry.getKey() + "> as used");
+        e.printStackTrace();
+      }
+    }
+  }
+
+  // collects everything that can be evicted, and returns how big everything that can't be is
+  private long scan(List<Artifact> artifacts) throws IOException {
+    final long[] pinnedBytes = {0};
+    if (Files.isDirectory(cacheDir)) {
+      Files.walkFileTree(cacheDir, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+          if (!attrs.isRegularFile()) {
+            return FileVisitResult.CONTINUE;
+          }
+          final String name = file.getFileName().toString();
+          if (file.equals(libraryIndex) || pinned.containsKey(file)) {
+            pinnedBytes[0] += attrs.size();
+          } else if (!name.endsWith(".part") && !name.endsWith(".tmp")) {
+            // anything else is still being written
+            artifacts.add(new Artifact(file, attrs.size(), attrs.lastModifiedTime().toMillis()));
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException e) {
+          // deleted while walking
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+    if (Files.isDirectory(songsDir)) {
+      try (DirectoryStream<Path> dirs = Files.newDirectoryStream(songsDir, Files::isDirectory)) {
+        for (Path dir : dirs) {
+          try {
+            pinnedBytes[0] += Files.size(dir.resolve(CompiledChart.FILE_NAME));
+          } catch (IOException e) {
+            // not compiled
+          }
+        }
+      }
+    }
+    return pinnedBytes[0];
+  }
+
+  @Override
+  public void dispose() {
+    executor.shutdownNow();
+  }
+
+  private static class Artifact {
+    final Path path;
+    final long size;
+    final long lastUsed;
+    Artifact(Path path, long size, long lastUsed) {
+      this.path = path;
+      this.size = size;
+      this.lastUsed = lastUsed;
+    }
+  }
+
+}
@@ -0,0 +1,214 @@
+package me.whizvox.lyrical.song;
+
+import me.whizvox.lyrical.util.Clock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary sidecar (<code>song.lyc</code>) that sits next to a <code>song.ini</code> and holds the same chart in a form
+ * that can be read in one go and bulk-copied instead of parsed.
+ *
+ * <pre>
+ * int    magic ("LYC\0")
+ * int    version
+ * long   song.ini size
+ * long   song.ini last modified time (ms)
+ * int    length, offset, preview timestamp
+ * int    line count (n)
+ * int    string count (m = 6 + n)
+ * int[n] line begins
+ * int[n] line ends
+ * int[m + 1] string table offsets, relative to the start of the UTF-8 blob
+ * byte[] UTF-8 blob: title, artist, language, charter, file, background, then every line's text
+ * </pre>
+ *
+ * The size and modified time of <code>song.ini</code> are recorded when the sidecar is written. If either differs when
+ * the sidecar is read, it is considered stale and ignored.
+ */
+public class CompiledChart {
+
+  public static final String FILE_NAME = "song.lyc";
+
+  private static final int
+      MAGIC = 0x4C594300,
+      VERSION = 1,
+      HEADER_SIZE = 4 + 4 + 8 + 8 + 4 * 3 + 4 + 4,
+      METADATA_STRINGS = 6;
+
+  public static Path getPath(Path iniPath) {
+    return iniPath.resolveSibling(FILE_NAME);
+  }
+
+  public static void write(Song song, Path iniPath) throws IOException {
+    BasicFileAttributes iniAttrs = Files.readAttributes(iniPath, BasicFileAttributes.class);
+    final int lineCount = song.lines.size();
+    final int stringCount = METADATA_STRINGS + lineCount;
+
+    List<byte[]> strings = new ArrayList<>(stringCount);
+    strings.add(song.metadata.title.getBytes(StandardCharsets.UTF_8));
+    strings.add(song.metadata.artist.getBytes(StandardCharsets.UTF_8));
+    strings.add(song.metadata.language.getBytes(StandardCharsets.UTF_8));
+    strings.add(song.metadata.charter.getBytes(StandardCharsets.UTF_8));
+    strings.add(song.metadata.filePath.getBytes(StandardCharsets.UTF_8));
+    strings.add(song.metadata.background.getBytes(StandardCharsets.UTF_8));
+    int blobSize = 0;
+    for (byte[] s : strings) {
+      blobSize += s.length;
+    }
+    for (int i = 0; i < lineCount; i++) {
+      byte[] s = song.lines.getText(i).getBytes(StandardCharsets.UTF_8);
+      strings.add(s);
+      blobSize += s.length;
+    }
+
+    ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + lineCount * 8 + (stringCount + 1) * 4 + blobSize);
+    buf.putInt(MAGIC);
+    buf.putInt(VERSION);
+    buf.putLong(iniAttrs.size());
+    buf.putLong(iniAttrs.lastModifiedTime().toMillis());
+    buf.putInt(song.metadata.length);
+    buf.putInt(song.metadata.offset);
+    buf.putInt(song.metadata.previewTimestamp);
+    buf.putInt(lineCount);
+    buf.putInt(stringCount);
+    for (int i = 0; i < lineCount; i++) {
+      buf.putInt(song.lines.getBegin(i));
+    }
+    for (int i = 0; i < lineCount; i++) {
+      buf.putInt(song.lines.getEnd(i));
+    }
+    int offset = 0;
+    for (byte[] s : strings) {
+      buf.putInt(offset);
+      offset += s.length;
+    }
+    buf.putInt(offset);
+    for (byte[] s : strings) {
+      buf.put(s);
+    }
+    buf.flip();
+
+    // write next to the destination first so a reader never sees a half-written file
+    Path outPath = getPath(iniPath);
+    Path tempPath = outPath.resolveSibling(FILE_NAME + ".tmp");
+    try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (buf.hasRemaining()) {
+        channel.write(buf);
+      }
+    }
+    Files.move(tempPath, outPath, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /**
+   * @return The song stored in the sidecar of <code>iniPath</code>, or <code>null</code> if it doesn't exist, is
+   * stale, or can't be understood, in which case <code>song.ini</code> should be parsed instead.
+   */
+  public static Song read(Path iniPath, boolean readMetadataOnly, Clock clock) {
+    Path path = getPath(iniPath);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+        return null;
+      }
+      // read onto the heap rather than mapped, since everything's copied out anyway, and a mapping would stay open
+      // until it's garbage collected, which keeps the file from being replaced or its directory renamed on Windows
+      ByteBuffer buf = ByteBuffer.allocate((int) size);
+      while (buf.hasRemaining()) {
+        if (channel.read(buf) < 0) {
+          return null;
+        }
+      }
+      buf.flip();
+      if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+        return null;
+      }
+      BasicFileAttributes iniAttrs = Files.readAttributes(iniPath, BasicFileAttributes.class);
+      if (buf.getLong() != iniAttrs.size() || buf.getLong() != iniAttrs.lastModifiedTime().toMillis()) {
+        return null;
+      }
+      Song.Metadata metadata = new Song.Metadata();
+      metadata.length = buf.getInt();
+      metadata.offset = buf.getInt();
+      metadata.previewTimestamp = buf.getInt();
+      final int lineCount = buf.getInt();
+      final int stringCount = buf.getInt();
+      if (lineCount < 0 || stringCount != METADATA_STRINGS + lineCount ||
+          (long) lineCount * 8 + (long) (stringCount + 1) * 4 > size - HEADER_SIZE) {
+        return null;
+      }
+
+      int[] begins = new int[lineCount];
+      int[] ends = new int[lineCount];
+      int[] stringOffsets = new int[stringCount + 1];
+      IntBuffer ints = buf.asIntBuffer();
+      ints.get(begins);
+      ints.get(ends);
+      // metadata only needs the first few strings, so don't bother copying the lyrics
+      final int neededStrings = readMetadataOnly ? METADATA_STRINGS : stringCount;
+      ints.get(stringOffsets, 0, neededStrings + 1);
+      buf.position(buf.position() + ((lineCount * 2 + stringCount + 1) * 4));
+      final int blobSize = stringOffsets[neededStrings];
+      if (blobSize < 0 || blobSize > buf.remaining()) {
+        return null;
+      }
+      byte[] blob = new byte[blobSize];
+      buf.get(blob);
+
+      metadata.title = decode(blob, stringOffsets, 0);
+      metadata.artist = decode(blob, stringOffsets, 1);
+      metadata.language = decode(blob, stringOffsets, 2);
+      metadata.charter = decode(blob, stringOffsets, 3);
+      metadata.filePath = decode(blob, stringOffsets, 4);
+      metadata.background = decode(blob, stringOffsets, 5);
+      if (readMetadataOnly) {
+        return new Song(metadata, new LineTimeline(), clock);
+      }
+      // decode every line's text into one char array rather than one String per line
+      final int textsStart = stringOffsets[METADATA_STRINGS];
+      CharBuffer texts = CharBuffer.allocate(Math.max(blobSize - textsStart, 16));
+      CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+      int[] textStarts = new int[lineCount];
+      int[] textLengths = new int[lineCount];
+      ByteBuffer blobBuf = ByteBuffer.wrap(blob);
+      for (int i = 0; i < lineCount; i++) {
+        blobBuf.limit(stringOffsets[METADATA_STRINGS + i + 1]).position(stringOffsets[METADATA_STRINGS + i]);
+        textStarts[i] = texts.position();
+        decoder.reset();
+        decoder.decode(blobBuf, texts, true);
+        decoder.flush(texts);
+        textLengths[i] = texts.position() - textStarts[i];
+      }
+      return new Song(metadata, new LineTimeline(begins, ends, textStarts, textLengths, texts.array(), lineCount), clock);
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException | RuntimeException e) {
+      System.err.println("Could not read compiled chart at <" + path + ">, falling back to song.ini");
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  private static String decode(byte[] blob, int[] offsets, int index) {
+    final int start = offsets[index];
+    return new String(blob, start, offsets[index + 1] - start, StandardCharsets.UTF_8);
+  }
+
+}
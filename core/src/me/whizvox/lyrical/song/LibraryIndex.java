@@ -0,0 +1,96 @@
+package me.whizvox.lyrical.song;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads and writes the on-disk copy of a {@link SongsRepository}, so that songs whose files haven't changed since the
+ * last run don't need their <code>song.ini</code> read again.
+ */
+public class LibraryIndex {
+
+  private static final int
+      MAGIC = 0x4C594958, // "LYIX"
+      VERSION = 1;
+
+  /**
+   * @return Every entry in the index, keyed by directory, or an empty map if the index doesn't exist or can't be read
+   */
+  public static Map<String, SongsRepository.Entry> read(Path path) {
+    Map<String, SongsRepository.Entry> entries = new HashMap<>();
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        System.err.println("Ignoring library index with an unknown format at <" + path + ">");
+        return entries;
+      }
+      final int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        final String dir = in.readUTF();
+        final long iniSize = in.readLong();
+        final long iniModified = in.readLong();
+        final boolean audioExists = in.readBoolean();
+        final long audioSize = in.readLong();
+        final long audioModified = in.readLong();
+        Song.Metadata metadata = new Song.Metadata();
+        metadata.title = in.readUTF();
+        metadata.artist = in.readUTF();
+        metadata.language = in.readUTF();
+        metadata.length = in.readInt();
+        metadata.charter = in.readUTF();
+        metadata.filePath = in.readUTF();
+        metadata.offset = in.readInt();
+        metadata.previewTimestamp = in.readInt();
+        metadata.background = in.readUTF();
+        entries.put(dir, new SongsRepository.Entry(
+            dir, metadata, iniSize, iniModified, audioExists, audioSize, audioModified
+        ));
+      }
+    } catch (NoSuchFileException e) {
+      // first run, nothing to reuse
+    } catch (IOException e) {
+      System.err.println("Could not read library index at <" + path + ">, all songs will be read again");
+      e.printStackTrace();
+      entries.clear();
+    }
+    return entries;
+  }
+
+  public static void write(Path path, Collection<SongsRepository.Entry> entries) throws IOException {
+    Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(entries.size());
+      for (SongsRepository.Entry entry : entries) {
+        out.writeUTF(entry.dir);
+        out.writeLong(entry.iniSize);
+        out.writeLong(entry.iniModified);
+        out.writeBoolean(entry.audioExists);
+        out.writeLong(entry.audioSize);
+        out.writeLong(entry.audioModified);
+        Song.Metadata metadata = entry.metadata;
+        out.writeUTF(metadata.title);
+        out.writeUTF(metadata.artist);
+        out.writeUTF(metadata.language);
+        out.writeInt(metadata.length);
+        out.writeUTF(metadata.charter);
+        out.writeUTF(metadata.filePath);
+        out.writeInt(metadata.offset);
+        out.writeInt(metadata.previewTimestamp);
+        out.writeUTF(metadata.background);
+      }
+    }
+    Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+}
@@ -0,0 +1,182 @@
+package me.whizvox.lyrical.song;
+
+import com.badlogic.gdx.utils.Disposable;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the songs and import directories on a background thread and turns file system events into targeted
+ * {@link SongsRepository} updates.
+ * <br>
+ * Events are debounced: changes are only applied once nothing has happened for {@link #QUIET_MILLIS}, or at the latest
+ * {@link #MAX_DELAY_MILLIS} after the first pending change, so saving a song or copying in an album only causes one
+ * update.
+ */
+public class LibraryWatcher implements Disposable {
+
+  private static final long
+      QUIET_MILLIS = 300,
+      MAX_DELAY_MILLIS = 2000;
+
+  private final SongsRepository repo;
+  private final Path songsDir;
+  private final Path importDir;
+
+  private WatchService watchService;
+  private Thread thread;
+  // only touched by the watcher thread
+  private final Map<WatchKey, Path> keys;
+  private final Set<String> pendingSongDirs;
+  private boolean pendingFullRefresh;
+  private boolean pendingImports;
+  private long firstPendingTime;
+
+  private volatile int importsVersion;
+
+  public LibraryWatcher(SongsRepository repo, Path songsDir, Path importDir) {
+    this.repo = repo;
+    this.songsDir = songsDir;
+    this.importDir = importDir;
+    keys = new HashMap<>();
+    pendingSongDirs = new HashSet<>();
+    pendingFullRefresh = false;
+    pendingImports = false;
+    firstPendingTime = 0;
+    importsVersion = 0;
+  }
+
+  public void start() throws IOException {
+    watchService = FileSystems.getDefault().newWatchService();
+    register(songsDir);
+    try (DirectoryStream<Path> dirs = Files.newDirectoryStream(songsDir, Files::isDirectory)) {
+      for (Path dir : dirs) {
+        register(dir);
+      }
+    }
+    register(importDir);
+    thread = new Thread(this::run, "Library watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * @return A number that changes every time something in the import directory is added, changed or removed
+   */
+  public int getImportsVersion() {
+    return importsVersion;
+  }
+
+  private void register(Path dir) throws IOException {
+    keys.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        WatchKey key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+        if (key != null) {
+          handle(key);
+        }
+        if (hasPending() && (key == null || System.currentTimeMillis() - firstPendingTime > MAX_DELAY_MILLIS)) {
+          apply();
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // disposed
+    }
+  }
+
+  private void handle(WatchKey key) {
+    Path dir = keys.get(key);
+    if (dir != null) {
+      for (WatchEvent<?> event : key.pollEvents()) {
+        if (!hasPending()) {
+          firstPendingTime = System.currentTimeMillis();
+        }
+        if (event.kind() == OVERFLOW) {
+          if (dir.equals(importDir)) {
+            pendingImports = true;
+          } else {
+            pendingFullRefresh = true;
+          }
+          continue;
+        }
+        Path name = (Path) event.context();
+        if (dir.equals(importDir)) {
+          pendingImports = true;
+        } else if (dir.equals(songsDir)) {
+          // a song directory was added, removed or renamed
+          Path child = songsDir.resolve(name);
+          if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+            try {
+              register(child);
+            } catch (IOException e) {
+              System.err.println("Could not watch <" + child + ">");
+              e.printStackTrace();
+            }
+          }
+          pendingSongDirs.add(name.toString());
+        } else {
+          // something inside a song directory changed
+          pendingSongDirs.add(dir.getFileName().toString());
+        }
+      }
+    }
+    if (!key.reset()) {
+      keys.remove(key);
+    }
+  }
+
+  private boolean hasPending() {
+    return pendingFullRefresh || pendingImports || !pendingSongDirs.isEmpty();
+  }
+
+  private void apply() {
+    if (pendingFullRefresh) {
+      try {
+        repo.refresh();
+      } catch (IOException e) {
+        System.err.println("Could not refresh songs directory");
+        e.printStackTrace();
+      }
+    } else if (!pendingSongDirs.isEmpty()) {
+      repo.refresh(pendingSongDirs);
+    }
+    if (pendingImports) {
+      importsVersion++;
+    }
+    pendingFullRefresh = false;
+    pendingImports = false;
+    pendingSongDirs.clear();
+  }
+
+  @Override
+  public void dispose() {
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+}
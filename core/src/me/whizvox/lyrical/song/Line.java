@@ -1,9 +0,0 @@
-package me.whizvox.lyrical.song;
-
-public class Line {
-
-  public int begin;
-  public int end;
-  public String text;
-
-}
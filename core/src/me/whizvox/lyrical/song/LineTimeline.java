@@ -0,0 +1,346 @@
+package me.whizvox.lyrical.song;
+
+import java.util.Arrays;
+
+/**
+ * The lines of a song, stored as parallel arrays instead of one object per line. Begin and end times are plain
+ * <code>int</code> arrays, and every line's text lives in a single shared <code>char</code> array, addressed by an
+ * offset and length.
+ * <br>
+ * Lines are expected to be sorted by their begin time. {@link #insert(int, int, String)} and
+ * {@link #reposition(int)} keep that order, while {@link #add(int, int, String)} appends as-is for loaders that read an
+ * already-sorted chart.
+ * <br>
+ * Time lookups ({@link #indexAt(int)}, {@link #nearest(int)}) are binary searches. End times aren't necessarily sorted
+ * when lines overlap, so those searches go through a running maximum of the end times, which is rebuilt lazily after
+ * the timeline is modified.
+ */
+public class LineTimeline {
+
+  private int size;
+  private int[] begins;
+  private int[] ends;
+  private int[] textStarts;
+  private int[] textLengths;
+
+  private char[] texts;
+  private int textsUsed;
+  // characters in the text store that no line points to anymore
+  private int textsGarbage;
+
+  // maxEnds[i] = the latest end time of lines 0 to i
+  private int[] maxEnds;
+  private boolean maxEndsDirty;
+
+  public LineTimeline(int capacity) {
+    capacity = Math.max(capacity, 4);
+    begins = new int[capacity];
+    ends = new int[capacity];
+    textStarts = new int[capacity];
+    textLengths = new int[capacity];
+    texts = new char[capacity * 16];
+    size = 0;
+    textsUsed = 0;
+    textsGarbage = 0;
+    maxEnds = new int[capacity];
+    maxEndsDirty = true;
+  }
+
+  public LineTimeline() {
+    this(16);
+  }
+
+  LineTimeline(int[] begins, int[] ends, int[] textStarts, int[] textLengths, char[] texts, int size) {
+    this.begins = begins;
+    this.ends = ends;
+    this.textStarts = textStarts;
+    this.textLengths = textLengths;
+    this.texts = texts;
+    this.size = size;
+    textsUsed = size == 0 ? 0 : textStarts[size - 1] + textLengths[size - 1];
+    textsGarbage = 0;
+    maxEnds = new int[begins.length];
+    maxEndsDirty = true;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int getBegin(int index) {
+    checkIndex(index);
+    return begins[index];
+  }
+
+  public int getEnd(int index) {
+    checkIndex(index);
+    return ends[index];
+  }
+
+  public String getText(int index) {
+    checkIndex(index);
+    return new String(texts, textStarts[index], textLengths[index]);
+  }
+
+  public int getTextLength(int index) {
+    checkIndex(index);
+    return textLengths[index];
+  }
+
+  public void appendText(int index, StringBuilder sb) {
+    checkIndex(index);
+    sb.append(texts, textStarts[index], textLengths[index]);
+  }
+
+  /**
+   * @return The end time of the last line, or 0 if there are no lines
+   */
+  public int getLastEnd() {
+    return size == 0 ? 0 : ends[size - 1];
+  }
+
+  /**
+   * Changes the begin and end times of a line without moving it.
+   */
+  public void set(int index, int begin, int end) {
+    checkIndex(index);
+    begins[index] = begin;
+    ends[index] = end;
+    maxEndsDirty = true;
+  }
+
+  public void setText(int index, String text) {
+    checkIndex(index);
+    textsGarbage += textLengths[index];
+    storeText(index, text);
+    if (textsGarbage > textsUsed / 2) {
+      compactTexts();
+    }
+  }
+
+  /**
+   * Appends a line to the end of the timeline, regardless of its begin time.
+   */
+  public void add(int begin, int end, String text) {
+    ensureCapacity(size + 1);
+    begins[size] = begin;
+    ends[size] = end;
+    storeText(size, text);
+    size++;
+    maxEndsDirty = true;
+  }
+
+  /**
+   * Inserts a line before the first line that doesn't begin earlier than it.
+   * @return The index of the new line
+   */
+  public int insert(int begin, int end, String text) {
+    int index = lowerBound(begin);
+    ensureCapacity(size + 1);
+    final int moved = size - index;
+    System.arraycopy(begins, index, begins, index + 1, moved);
+    System.arraycopy(ends, index, ends, index + 1, moved);
+    System.arraycopy(textStarts, index, textStarts, index + 1, moved);
+    System.arraycopy(textLengths, index, textLengths, index + 1, moved);
+    begins[index] = begin;
+    ends[index] = end;
+    size++;
+    storeText(index, text);
+    maxEndsDirty = true;
+    return index;
+  }
+
+  /**
+   * Moves a line whose begin time has changed back to its sorted position.
+   * @return The new index of the line
+   */
+  public int reposition(int index) {
+    checkIndex(index);
+    final int begin = begins[index];
+    final int end = ends[index];
+    final int textStart = textStarts[index];
+    final int textLength = textLengths[index];
+    int newIndex = index;
+    while (newIndex > 0 && begins[newIndex - 1] > begin) {
+      newIndex--;
+    }
+    while (newIndex < size - 1 && begins[newIndex + 1] < begin) {
+      newIndex++;
+    }
+    if (newIndex < index) {
+      final int moved = index - newIndex;
+      System.arraycopy(begins, newIndex, begins, newIndex + 1, moved);
+      System.arraycopy(ends, newIndex, ends, newIndex + 1, moved);
+      System.arraycopy(textStarts, newIndex, textStarts, newIndex + 1, moved);
+      System.arraycopy(textLengths, newIndex, textLengths, newIndex + 1, moved);
+    } else if (newIndex > index) {
+      final int moved = newIndex - index;
+      System.arraycopy(begins, index + 1, begins, index, moved);
+      System.arraycopy(ends, index + 1, ends, index, moved);
+      System.arraycopy(textStarts, index + 1, textStarts, index, moved);
+      System.arraycopy(textLengths, index + 1, textLengths, index, moved);
+    }
+    begins[newIndex] = begin;
+    ends[newIndex] = end;
+    textStarts[newIndex] = textStart;
+    textLengths[newIndex] = textLength;
+    maxEndsDirty = true;
+    return newIndex;
+  }
+
+  public void remove(int index) {
+    checkIndex(index);
+    textsGarbage += textLengths[index];
+    final int moved = size - index - 1;
+    System.arraycopy(begins, index + 1, begins, index, moved);
+    System.arraycopy(ends, index + 1, ends, index, moved);
+    System.arraycopy(textStarts, index + 1, textStarts, index, moved);
+    System.arraycopy(textLengths, index + 1, textLengths, index, moved);
+    size--;
+    maxEndsDirty = true;
+    if (textsGarbage > textsUsed / 2) {
+      compactTexts();
+    }
+  }
+
+  public void clear() {
+    size = 0;
+    textsUsed = 0;
+    textsGarbage = 0;
+    maxEndsDirty = true;
+  }
+
+  /**
+   * @return The index of the first line whose begin time is not less than <code>timestamp</code>, or
+   * {@link #size()} if there is none
+   */
+  public int lowerBound(int timestamp) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (begins[mid] < timestamp) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Finds the line that should be showing at <code>timestamp</code>: the first line that hasn't ended yet, or the last
+   * line if every line has ended.
+   * @return The index of that line, or -1 if there are no lines
+   */
+  public int indexAt(int timestamp) {
+    if (size == 0) {
+      return -1;
+    }
+    updateMaxEnds();
+    int low = 0;
+    int high = size - 1;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (maxEnds[mid] < timestamp) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Finds the line with a begin or end point closest to <code>timestamp</code>. Only the lines around the
+   * <code>timestamp</code> are checked, which is exact as long as lines don't overlap.
+   * @return The index of that line, or -1 if there are no lines
+   */
+  public int nearest(int timestamp) {
+    if (size == 0) {
+      return -1;
+    }
+    // the closest begin point is right before or after the timestamp, same for the closest end point
+    final int byBegin = lowerBound(timestamp);
+    final int byEnd = indexAt(timestamp);
+    int best = closer(byBegin - 1, -1, timestamp);
+    best = closer(byBegin, best, timestamp);
+    best = closer(byEnd - 1, best, timestamp);
+    return closer(byEnd, best, timestamp);
+  }
+
+  private int distance(int index, int timestamp) {
+    return Math.min(Math.abs(begins[index] - timestamp), Math.abs(ends[index] - timestamp));
+  }
+
+  private int closer(int index, int best, int timestamp) {
+    if (index < 0 || index >= size) {
+      return best;
+    }
+    if (best == -1) {
+      return index;
+    }
+    final int d = distance(index, timestamp);
+    final int bestD = distance(best, timestamp);
+    return d < bestD || (d == bestD && index < best) ? index : best;
+  }
+
+  private void updateMaxEnds() {
+    if (maxEndsDirty) {
+      if (maxEnds.length < size) {
+        maxEnds = new int[begins.length];
+      }
+      int max = Integer.MIN_VALUE;
+      for (int i = 0; i < size; i++) {
+        max = Math.max(max, ends[i]);
+        maxEnds[i] = max;
+      }
+      maxEndsDirty = false;
+    }
+  }
+
+  private void storeText(int index, String text) {
+    final int length = text.length();
+    if (textsUsed + length > texts.length) {
+      texts = Arrays.copyOf(texts, Math.max(texts.length * 2, textsUsed + length));
+    }
+    text.getChars(0, length, texts, textsUsed);
+    textStarts[index] = textsUsed;
+    textLengths[index] = length;
+    textsUsed += length;
+  }
+
+  private void compactTexts() {
+    char[] newTexts = new char[Math.max(textsUsed - textsGarbage, 16)];
+    int pos = 0;
+    for (int i = 0; i < size; i++) {
+      System.arraycopy(texts, textStarts[i], newTexts, pos, textLengths[i]);
+      textStarts[i] = pos;
+      pos += textLengths[i];
+    }
+    texts = newTexts;
+    textsUsed = pos;
+    textsGarbage = 0;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > begins.length) {
+      final int newCapacity = Math.max(capacity, begins.length * 2);
+      begins = Arrays.copyOf(begins, newCapacity);
+      ends = Arrays.copyOf(ends, newCapacity);
+      textStarts = Arrays.copyOf(textStarts, newCapacity);
+      textLengths = Arrays.copyOf(textLengths, newCapacity);
+    }
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+
+}
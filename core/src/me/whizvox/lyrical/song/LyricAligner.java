@@ -0,0 +1,323 @@
+package me.whizvox.lyrical.song;
+
+import me.whizvox.lyrical.util.FFT;
+import me.whizvox.lyrical.util.WavReader;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Proposes begin and end times for lyric lines from how much vocal-range energy a song's audio has over time.
+ * <br>
+ * The audio is split into chunks that are analyzed in parallel, each giving the energy between {@link #MIN_FREQUENCY}
+ * and {@link #MAX_FREQUENCY} for every 10 ms frame. The frames that stand out from the rest of the song are treated as
+ * singing, and are joined up into sections. Lines are then laid out over the singing sections in order, each taking up
+ * time in proportion to how many letters it has, and the boundaries between lines are moved into the nearest pause if
+ * there's one close by.
+ * <br>
+ * This only gets timings roughly right, but that's much quicker to fix up in the editor than timing every line by hand.
+ */
+public class LyricAligner {
+
+  private static final int
+      FFT_SIZE = 1024,
+      FRAMES_PER_SECOND = 100,
+      CHUNK_SECONDS = 20,
+      MIN_FREQUENCY = 300,
+      MAX_FREQUENCY = 3400,
+      // frames averaged on either side, to smooth out consonants and vibrato (100 ms)
+      SMOOTH_RADIUS = 5,
+      // pauses shorter than this don't split sections (250 ms)
+      MIN_PAUSE_FRAMES = 25,
+      // sections shorter than this are dropped (150 ms)
+      MIN_SECTION_FRAMES = 15,
+      // how far a boundary between lines can move to land in a pause (1.5 s)
+      MAX_BOUNDARY_SHIFT_FRAMES = 150;
+
+  private LyricAligner() {
+  }
+
+  /**
+   * Aligns lines on a background thread.
+   * @param fromMillis Where in the audio the first line can begin
+   * @return A future that completes with the proposed timings, or null if the WAV couldn't be read
+   */
+  public static CompletableFuture<Proposal> alignInBackground(Path wav, List<String> lines, int fromMillis) {
+    CompletableFuture<Proposal> future = new CompletableFuture<>();
+    Thread thread = new Thread(() -> {
+      try {
+        future.complete(align(wav, lines, fromMillis));
+      } catch (IOException | InterruptedException e) {
+        System.err.println("Could not align lyrics to <" + wav + ">");
+        e.printStackTrace();
+        future.complete(null);
+      } catch (RuntimeException e) {
+        future.completeExceptionally(e);
+      }
+    }, "Lyric alignment");
+    thread.setDaemon(true);
+    thread.start();
+    return future;
+  }
+
+  public static Proposal align(Path wav, List<String> lines, int fromMillis) throws IOException, InterruptedException {
+    final int sampleRate;
+    final long frameCount;
+    try (WavReader reader = new WavReader(wav)) {
+      sampleRate = reader.getSampleRate();
+      frameCount = reader.getFrameCount();
+    }
+    final int hop = Math.max(1, sampleRate / FRAMES_PER_SECOND);
+    final int envelopeLength = (int) ((frameCount + hop - 1) / hop);
+    float[] envelope = computeEnvelope(wav, sampleRate, hop, envelopeLength);
+    final int firstFrame = Math.max(0, Math.min(envelopeLength, fromMillis / (1000 / FRAMES_PER_SECOND)));
+    boolean[] active = findActiveFrames(envelope, firstFrame);
+    // sections[i * 2] = first frame, sections[i * 2 + 1] = one past the last frame
+    int[] sections = findSections(active, firstFrame);
+    if (sections.length == 0) {
+      // nothing stood out, so spread the lines evenly over the rest of the song
+      sections = new int[] {firstFrame, envelopeLength};
+    }
+    return layOut(lines, sections, 1000f / FRAMES_PER_SECOND);
+  }
+
+  // vocal-range energy of each frame in dB, computed over chunks in parallel
+  private static float[] computeEnvelope(Path wav, int sampleRate, int hop, int length)
+      throws IOException, InterruptedException {
+    float[] envelope = new float[length];
+    final int framesPerChunk = CHUNK_SECONDS * FRAMES_PER_SECOND;
+    final int chunkCount = (length + framesPerChunk - 1) / framesPerChunk;
+    final FFT fft = new FFT(FFT_SIZE);
+    final float[] window = fft.createHannWindow();
+    final int firstBin = Math.max(1, MIN_FREQUENCY * FFT_SIZE / sampleRate);
+    final int lastBin = Math.min(FFT_SIZE / 2 - 1, MAX_FREQUENCY * FFT_SIZE / sampleRate);
+    ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+      Thread thread = new Thread(r, "Lyric alignment worker");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      List<Callable<Void>> tasks = new ArrayList<>(chunkCount);
+      for (int c = 0; c < chunkCount; c++) {
+        final int from = c * framesPerChunk;
+        final int to = Math.min(length, from + framesPerChunk);
+        tasks.add(() -> {
+          computeEnvelopeChunk(wav, fft, window, firstBin, lastBin, hop, from, to, envelope);
+          return null;
+        });
+      }
+      for (Future<Void> result : executor.invokeAll(tasks)) {
+        try {
+          result.get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+          }
+          throw new RuntimeException(e.getCause());
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    return envelope;
+  }
+
+  private static void computeEnvelopeChunk(Path wav, FFT fft, float[] window, int firstBin, int lastBin, int hop,
+                                           int from, int to, float[] envelope) throws IOException {
+    // frame n is centered on sample n * hop
+    final long firstSample = (long) from * hop - FFT_SIZE / 2;
+    final int sampleCount = (to - from - 1) * hop + FFT_SIZE;
+    float[] samples = new float[sampleCount];
+    try (WavReader reader = new WavReader(wav)) {
+      final int skip = (int) Math.max(0, -firstSample);
+      reader.seek(firstSample + skip);
+      int offset = skip;
+      int read;
+      while (offset < sampleCount && (read = reader.read(samples, offset, sampleCount - offset)) > 0) {
+        offset += read;
+      }
+    }
+    float[] re = new float[FFT_SIZE];
+    float[] im = new float[FFT_SIZE];
+    for (int n = from; n < to; n++) {
+      final int start = (n - from) * hop;
+      for (int i = 0; i < FFT_SIZE; i++) {
+        re[i] = samples[start + i] * window[i];
+        im[i] = 0;
+      }
+      fft.transform(re, im);
+      double energy = 0;
+      for (int k = firstBin; k <= lastBin; k++) {
+        energy += re[k] * re[k] + im[k] * im[k];
+      }
+      envelope[n] = 10 * (float) Math.log10(energy + 1e-9);
+    }
+  }
+
+  private static boolean[] findActiveFrames(float[] envelope, int firstFrame) {
+    boolean[] active = new boolean[envelope.length];
+    final int count = envelope.length - firstFrame;
+    if (count <= 0) {
+      return active;
+    }
+    float[] smoothed = new float[envelope.length];
+    double sum = 0;
+    int lo = firstFrame;
+    int hi = firstFrame;
+    for (int n = firstFrame; n < envelope.length; n++) {
+      while (hi < Math.min(envelope.length, n + SMOOTH_RADIUS + 1)) {
+        sum += envelope[hi++];
+      }
+      while (lo < n - SMOOTH_RADIUS) {
+        sum -= envelope[lo++];
+      }
+      smoothed[n] = (float) (sum / (hi - lo));
+    }
+    // the threshold sits between how loud the quieter and louder parts of the song are
+    float[] sorted = Arrays.copyOfRange(smoothed, firstFrame, envelope.length);
+    Arrays.sort(sorted);
+    final float quiet = sorted[(int) (count * 0.3f)];
+    final float loud = sorted[Math.min(count - 1, (int) (count * 0.9f))];
+    final float threshold = quiet + (loud - quiet) * 0.35f;
+    for (int n = firstFrame; n < envelope.length; n++) {
+      active[n] = smoothed[n] > threshold;
+    }
+    return active;
+  }
+
+  private static int[] findSections(boolean[] active, int firstFrame) {
+    List<int[]> sections = new ArrayList<>();
+    int n = firstFrame;
+    while (n < active.length) {
+      while (n < active.length && !active[n]) {
+        n++;
+      }
+      if (n >= active.length) {
+        break;
+      }
+      final int start = n;
+      while (n < active.length && active[n]) {
+        n++;
+      }
+      int[] last = sections.isEmpty() ? null : sections.get(sections.size() - 1);
+      if (last != null && start - last[1] < MIN_PAUSE_FRAMES) {
+        last[1] = n;
+      } else {
+        sections.add(new int[] {start, n});
+      }
+    }
+    int count = 0;
+    int[] result = new int[sections.size() * 2];
+    for (int[] section : sections) {
+      if (section[1] - section[0] >= MIN_SECTION_FRAMES) {
+        result[count++] = section[0];
+        result[count++] = section[1];
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  private static Proposal layOut(List<String> lines, int[] sections, float millisPerFrame) {
+    final int sectionCount = sections.length / 2;
+    // singing time is counted as if the sections were back to back
+    int[] cumulative = new int[sectionCount + 1];
+    for (int i = 0; i < sectionCount; i++) {
+      cumulative[i + 1] = cumulative[i] + sections[i * 2 + 1] - sections[i * 2];
+    }
+    final int singing = cumulative[sectionCount];
+    int[] weights = new int[lines.size()];
+    long totalWeight = 0;
+    for (int i = 0; i < weights.length; i++) {
+      int letters = 0;
+      String line = lines.get(i);
+      for (int j = 0; j < line.length(); j++) {
+        if (!Character.isWhitespace(line.charAt(j))) {
+          letters++;
+        }
+      }
+      weights[i] = Math.max(1, letters);
+      totalWeight += weights[i];
+    }
+    // boundaries[i] = where line i begins, boundaries[lines] = where the last one ends, in frames
+    int[] boundaries = new int[weights.length + 1];
+    long weightSoFar = 0;
+    for (int i = 0; i <= weights.length; i++) {
+      final int singingFrame = (int) (singing * weightSoFar / totalWeight);
+      boundaries[i] = toFrame(singingFrame, sections, cumulative, i == weights.length);
+      if (i < weights.length) {
+        weightSoFar += weights[i];
+      }
+    }
+    int[] begins = new int[weights.length];
+    int[] ends = new int[weights.length];
+    for (int i = 0; i < weights.length; i++) {
+      begins[i] = boundaries[i];
+      ends[i] = boundaries[i + 1];
+    }
+    // move boundaries that land mid-section into a nearby pause, ending the earlier line where it starts and beginning
+    // the later one where it ends
+    for (int i = 1; i < weights.length; i++) {
+      final int b = boundaries[i];
+      int bestPause = -1;
+      int bestDistance = MAX_BOUNDARY_SHIFT_FRAMES + 1;
+      for (int s = 0; s + 1 < sectionCount; s++) {
+        final int pauseStart = sections[s * 2 + 1];
+        final int pauseEnd = sections[s * 2 + 2];
+        final int distance = b < pauseStart ? pauseStart - b : (b > pauseEnd ? b - pauseEnd : 0);
+        if (distance < bestDistance) {
+          bestDistance = distance;
+          bestPause = s;
+        }
+      }
+      if (bestPause != -1) {
+        final int pauseStart = sections[bestPause * 2 + 1];
+        final int pauseEnd = sections[bestPause * 2 + 2];
+        // only if it doesn't push a line past its neighbours
+        if (pauseStart > begins[i - 1] && pauseEnd < ends[i]) {
+          ends[i - 1] = pauseStart;
+          begins[i] = pauseEnd;
+        }
+      }
+    }
+    for (int i = 0; i < weights.length; i++) {
+      begins[i] = Math.round(begins[i] * millisPerFrame);
+      ends[i] = Math.max(begins[i] + 1, Math.round(ends[i] * millisPerFrame));
+    }
+    return new Proposal(begins, ends);
+  }
+
+  // maps a frame of back-to-back singing time to a frame of the song
+  private static int toFrame(int singingFrame, int[] sections, int[] cumulative, boolean isEnd) {
+    final int sectionCount = sections.length / 2;
+    for (int s = 0; s < sectionCount; s++) {
+      // an end exactly on a section boundary belongs to the section before, a begin to the one after
+      if (isEnd ? singingFrame <= cumulative[s + 1] : singingFrame < cumulative[s + 1]) {
+        return sections[s * 2] + singingFrame - cumulative[s];
+      }
+    }
+    return sections[sections.length - 1];
+  }
+
+  /**
+   * Proposed timings for each line that was aligned, in audio time.
+   */
+  public static class Proposal {
+    public final int[] begins;
+    public final int[] ends;
+
+    private Proposal(int[] begins, int[] ends) {
+      this.begins = begins;
+      this.ends = ends;
+    }
+  }
+
+}
@@ -0,0 +1,144 @@
+package me.whizvox.lyrical.song;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.audio.Music;
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.Disposable;
+import me.whizvox.lyrical.util.MemoryFileHandle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Holds on to a song's music after it's been opened ahead of time, so the scene that plays the song can take it over
+ * instead of opening the audio again.
+ * <br>
+ * The song selection screen has the full audio of whichever song has stayed selected for a moment read into memory on a
+ * background thread, or hands over the music it was already previewing when a song has no preview clip. Music is only
+ * opened from the read bytes once it's taken, which doesn't touch the disk and so is cheap enough for the render thread.
+ * Only the most recent song is kept, and it's let go of once something else replaces it. Except for the reading,
+ * everything here is meant to be called from the render thread, since that's where libGDX expects music to be opened.
+ */
+public class MusicHandoff implements Disposable {
+
+  // songs bigger than this aren't kept in memory, and are just opened from disk when they're played
+  private static final int MAX_READ_BYTES = 32 * 1024 * 1024;
+
+  private final ExecutorService executor;
+  private Path path;
+  // either music that was offered, or the bytes of a song that's being or has been read, or neither
+  private Music music;
+  private CompletableFuture<byte[]> bytes;
+
+  public MusicHandoff() {
+    executor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "Music handoff");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.NORM_PRIORITY - 1);
+      return thread;
+    });
+    path = null;
+    music = null;
+    bytes = null;
+  }
+
+  private static Path key(FileHandle file) {
+    return Paths.get(file.file().getAbsolutePath()).normalize();
+  }
+
+  private boolean holds(FileHandle file) {
+    return path != null && path.equals(key(file));
+  }
+
+  /**
+   * @return Whether music for this file is ready to be taken
+   */
+  public boolean has(FileHandle file) {
+    return holds(file) && (music != null || (bytes.isDone() && bytes.getNow(null) != null));
+  }
+
+  /**
+   * Starts reading a file into memory in the background, unless it already is being or has been.
+   */
+  public void warm(FileHandle file) {
+    if (holds(file) || !file.exists()) {
+      return;
+    }
+    clear();
+    final Path filePath = key(file);
+    path = filePath;
+    bytes = CompletableFuture.supplyAsync(() -> {
+      try {
+        if (Files.size(filePath) > MAX_READ_BYTES) {
+          return null;
+        }
+        return Files.readAllBytes(filePath);
+      } catch (IOException e) {
+        System.err.println("Could not read <" + filePath + "> ahead of time");
+        e.printStackTrace();
+        return null;
+      }
+    }, executor);
+  }
+
+  /**
+   * Takes over music that's already open for a file. It'll be rewound before it's handed off.
+   */
+  public void offer(FileHandle file, Music music) {
+    if (this.music == music) {
+      return;
+    }
+    clear();
+    this.music = music;
+    path = key(file);
+  }
+
+  /**
+   * @return The music that was opened ahead of time for this file, stopped and rewound to the start, music opened from
+   * the bytes that were read ahead of time, or newly opened music if neither is ready. Either way, it belongs to the
+   * caller.
+   */
+  public Music open(FileHandle file) {
+    if (has(file)) {
+      Music taken = music;
+      if (taken == null) {
+        taken = Gdx.audio.newMusic(new MemoryFileHandle(file.path(), bytes.getNow(null)));
+      } else {
+        music = null;
+        taken.stop();
+        taken.setLooping(false);
+      }
+      clear();
+      return taken;
+    }
+    return Gdx.audio.newMusic(file);
+  }
+
+  /**
+   * Disposes the music or lets go of the bytes that are being held, if there are any.
+   */
+  public void clear() {
+    if (music != null) {
+      music.dispose();
+      music = null;
+    }
+    if (bytes != null) {
+      // the read can't be stopped, but whatever it reads is just dropped
+      bytes.cancel(false);
+      bytes = null;
+    }
+    path = null;
+  }
+
+  @Override
+  public void dispose() {
+    clear();
+    executor.shutdownNow();
+  }
+
+}
@@ -0,0 +1,127 @@
+package me.whizvox.lyrical.song;
+
+import com.badlogic.gdx.utils.Disposable;
+import me.whizvox.lyrical.util.WavReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link Onsets} of transcoded WAV files, kept between runs.
+ * <br>
+ * Onsets are kept right next to the WAV they were found in, with the same name, which is already a hash of the original
+ * audio (see {@link TranscodeCache}). Everything is read and written on a single background thread.
+ */
+public class OnsetCache implements Disposable {
+
+  private final CacheManager cacheManager;
+  private final ExecutorService executor;
+  // keyed by WAV file, only holds loads that haven't finished yet
+  private final Map<Path, CompletableFuture<Onsets>> loading;
+
+  public OnsetCache(CacheManager cacheManager) {
+    this.cacheManager = cacheManager;
+    executor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "Onsets");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+    loading = new HashMap<>();
+  }
+
+  public Path getPath(Path wav) {
+    String name = wav.getFileName().toString();
+    if (name.endsWith(".wav")) {
+      name = name.substring(0, name.length() - 4);
+    }
+    return wav.resolveSibling(name + ".onsets");
+  }
+
+  /**
+   * Reads the onsets of a WAV file in the background, detecting them first if that hasn't been done yet. If the same
+   * file is already being loaded, the same future is returned. The future completes with null if the WAV couldn't be
+   * read.
+   */
+  public synchronized CompletableFuture<Onsets> load(Path wav) {
+    CompletableFuture<Onsets> future = loading.get(wav);
+    if (future != null) {
+      return future;
+    }
+    future = CompletableFuture.supplyAsync(() -> {
+      try {
+        return getOrDetect(wav);
+      } catch (IOException e) {
+        System.err.println("Could not get onsets of <" + wav + ">");
+        e.printStackTrace();
+        return null;
+      }
+    }, executor);
+    loading.put(wav, future);
+    future.whenComplete((onsets, t) -> {
+      synchronized (OnsetCache.this) {
+        loading.remove(wav);
+      }
+    });
+    return future;
+  }
+
+  private Onsets getOrDetect(Path wav) throws IOException {
+    Path path = getPath(wav);
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+      Onsets onsets = Onsets.read(in);
+      if (onsets != null) {
+        cacheManager.touch(path);
+        return onsets;
+      }
+    } catch (NoSuchFileException e) {
+      // not detected yet
+    } catch (IOException e) {
+      System.err.println("Could not read cached onsets <" + path + ">, detecting again");
+      e.printStackTrace();
+    }
+    Onsets onsets;
+    try (WavReader reader = new WavReader(wav)) {
+      onsets = Onsets.detect(reader);
+    }
+    Path tempPath = path.resolveSibling(UUID.randomUUID().toString() + ".part");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+        onsets.write(out);
+      }
+      try {
+        Files.move(tempPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+      }
+      cacheManager.added(path);
+    } catch (IOException e) {
+      // the onsets are still usable, they'll just be detected again next time
+      System.err.println("Could not cache onsets at <" + path + ">");
+      e.printStackTrace();
+    } finally {
+      Files.deleteIfExists(tempPath);
+    }
+    return onsets;
+  }
+
+  @Override
+  public void dispose() {
+    executor.shutdownNow();
+  }
+
+}
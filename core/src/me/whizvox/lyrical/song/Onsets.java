@@ -0,0 +1,211 @@
+package me.whizvox.lyrical.song;
+
+import me.whizvox.lyrical.util.FFT;
+import me.whizvox.lyrical.util.WavReader;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Timestamps of where notes and beats start in a song's audio, in milliseconds and sorted, for snapping line begin and
+ * end points to.
+ * <br>
+ * Onsets are found with spectral flux: how much louder each frequency bin got since the last frame, summed up, with
+ * peaks picked against a moving average. Timestamps are in audio time, so a song's offset has to be taken into account
+ * when comparing them to line timestamps.
+ */
+public class Onsets {
+
+  private static final int
+      MAGIC = 0x4C594F4E, // "LYON"
+      VERSION = 1,
+      FFT_SIZE = 1024,
+      FRAMES_PER_SECOND = 100,
+      // a frame has to be the biggest within this many frames to count as a peak
+      PEAK_RADIUS = 3,
+      // and bigger than the average within this many frames
+      AVERAGE_RADIUS = 10,
+      // and this many frames after the last onset (50 ms)
+      MIN_SPACING = 5;
+  // how far above the average a peak has to be, relative to the biggest flux in the song
+  private static final float THRESHOLD = 0.1f;
+
+  private final int[] millis;
+
+  private Onsets(int[] millis) {
+    this.millis = millis;
+  }
+
+  public int size() {
+    return millis.length;
+  }
+
+  public int get(int index) {
+    return millis[index];
+  }
+
+  /**
+   * @return The index of the first onset at or after <code>timestamp</code>, which is {@link #size()} if there isn't one
+   */
+  public int lowerBound(int timestamp) {
+    int low = 0;
+    int high = millis.length;
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (millis[mid] < timestamp) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return The onset closest to <code>timestamp</code> if it's at most <code>maxDistance</code> away, otherwise
+   * <code>timestamp</code> itself
+   */
+  public int snap(int timestamp, int maxDistance) {
+    final int i = lowerBound(timestamp);
+    int best = timestamp;
+    int bestDistance = maxDistance + 1;
+    if (i < millis.length && millis[i] - timestamp < bestDistance) {
+      best = millis[i];
+      bestDistance = millis[i] - timestamp;
+    }
+    if (i > 0 && timestamp - millis[i - 1] < bestDistance) {
+      best = millis[i - 1];
+    }
+    return best;
+  }
+
+  /**
+   * @return The first onset after <code>timestamp</code>, or <code>timestamp</code> if there aren't any
+   */
+  public int after(int timestamp) {
+    final int i = lowerBound(timestamp + 1);
+    return i < millis.length ? millis[i] : timestamp;
+  }
+
+  /**
+   * @return The last onset before <code>timestamp</code>, or <code>timestamp</code> if there aren't any
+   */
+  public int before(int timestamp) {
+    final int i = lowerBound(timestamp);
+    return i > 0 ? millis[i - 1] : timestamp;
+  }
+
+  public void write(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(millis.length);
+    for (int m : millis) {
+      out.writeInt(m);
+    }
+  }
+
+  /**
+   * @return The onsets, or null if they were written in a different format
+   */
+  public static Onsets read(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      return null;
+    }
+    final int count = in.readInt();
+    if (count < 0) {
+      return null;
+    }
+    int[] millis = new int[count];
+    for (int i = 0; i < count; i++) {
+      millis[i] = in.readInt();
+      if (i > 0 && millis[i] < millis[i - 1]) {
+        return null;
+      }
+    }
+    return new Onsets(millis);
+  }
+
+  /**
+   * Decodes a whole WAV file and finds its onsets.
+   */
+  public static Onsets detect(WavReader reader) throws IOException {
+    final int hop = Math.max(1, reader.getSampleRate() / FRAMES_PER_SECOND);
+    final int frameCount = (int) ((reader.getFrameCount() + hop - 1) / hop);
+    FFT fft = new FFT(FFT_SIZE);
+    float[] window = fft.createHannWindow();
+    // samples[] slides along by a hop each frame. frame n is centered on sample n * hop, so it starts half a window
+    // before that, which is silence for the first few frames.
+    float[] samples = new float[FFT_SIZE];
+    float[] re = new float[FFT_SIZE];
+    float[] im = new float[FFT_SIZE];
+    float[] prevMagnitudes = new float[FFT_SIZE / 2];
+    float[] flux = new float[frameCount];
+    int filled = FFT_SIZE / 2;
+    for (int n = 0; n < frameCount; n++) {
+      int read;
+      while (filled < FFT_SIZE && (read = reader.read(samples, filled, FFT_SIZE - filled)) > 0) {
+        filled += read;
+      }
+      for (int i = 0; i < FFT_SIZE; i++) {
+        re[i] = (i < filled ? samples[i] : 0) * window[i];
+        im[i] = 0;
+      }
+      fft.transform(re, im);
+      float sum = 0;
+      for (int k = 1; k < FFT_SIZE / 2; k++) {
+        // log compression, so quiet parts of the song still have onsets
+        final float magnitude = (float) Math.log1p(100 * Math.sqrt(re[k] * re[k] + im[k] * im[k]));
+        if (n > 0 && magnitude > prevMagnitudes[k]) {
+          sum += magnitude - prevMagnitudes[k];
+        }
+        prevMagnitudes[k] = magnitude;
+      }
+      flux[n] = sum;
+      final int keep = Math.max(0, filled - hop);
+      System.arraycopy(samples, filled - keep, samples, 0, keep);
+      filled = keep;
+    }
+    return new Onsets(pickPeaks(flux, 1000f * hop / reader.getSampleRate()));
+  }
+
+  private static int[] pickPeaks(float[] flux, float millisPerFrame) {
+    float max = 0;
+    for (float f : flux) {
+      max = Math.max(max, f);
+    }
+    if (max <= 0) {
+      return new int[0];
+    }
+    // running sums make the moving average O(1) per frame
+    double[] prefix = new double[flux.length + 1];
+    for (int i = 0; i < flux.length; i++) {
+      prefix[i + 1] = prefix[i] + flux[i] / max;
+    }
+    int[] onsets = new int[flux.length];
+    int count = 0;
+    int last = -MIN_SPACING;
+    for (int n = 0; n < flux.length; n++) {
+      final float value = flux[n] / max;
+      boolean peak = n - last >= MIN_SPACING;
+      for (int i = Math.max(0, n - PEAK_RADIUS); peak && i <= Math.min(flux.length - 1, n + PEAK_RADIUS); i++) {
+        if (flux[i] > flux[n]) {
+          peak = false;
+        }
+      }
+      if (peak) {
+        final int from = Math.max(0, n - AVERAGE_RADIUS);
+        final int to = Math.min(flux.length, n + AVERAGE_RADIUS + 1);
+        final double average = (prefix[to] - prefix[from]) / (to - from);
+        if (value >= average + THRESHOLD) {
+          onsets[count++] = Math.round(n * millisPerFrame);
+          last = n;
+        }
+      }
+    }
+    int[] result = new int[count];
+    System.arraycopy(onsets, 0, result, 0, count);
+    return result;
+  }
+
+}
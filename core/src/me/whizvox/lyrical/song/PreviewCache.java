@@ -0,0 +1,232 @@
+package me.whizvox.lyrical.song;
+
+import com.badlogic.gdx.utils.Disposable;
+import me.whizvox.lyrical.util.HashUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * Short, loudness-normalized clips of each song starting at its preview point, so the song selection screen can play a
+ * preview straight away instead of opening the whole song and seeking.
+ * <br>
+ * Clips are cut with ffmpeg on a single background thread, and named after a hash of the audio file's path, size, last
+ * modified time and the preview point, so moving the preview point or replacing the audio makes a new clip. Clips are
+ * only cut for songs that are saved from the editor or selected in the song selection screen, which moves its song to
+ * the front of the queue, so songs nobody previews don't take up room in the cache.
+ */
+public class PreviewCache implements Disposable {
+
+  public static final int
+      CLIP_MILLIS = 15000,
+      FADE_IN_MILLIS = 300,
+      FADE_OUT_MILLIS = 1000;
+
+  private final Path dir;
+  private final CacheManager cacheManager;
+  private final BlockingDeque<SongsRepository.Entry> queue;
+  // clips that are queued or being cut
+  private final Set<Path> pending;
+  // clips that ffmpeg couldn't cut, which won't be tried again until the next run
+  private final Set<Path> failed;
+  private Thread thread;
+  // the ffmpeg that's cutting a clip right now, so it can be stopped on dispose. it only prints warnings, so reading its
+  // output can block until it exits, and interrupting the thread isn't enough to stop it.
+  private volatile Process running;
+
+  public PreviewCache(Path dir, CacheManager cacheManager) {
+    this.dir = dir;
+    this.cacheManager = cacheManager;
+    queue = new LinkedBlockingDeque<>();
+    pending = ConcurrentHashMap.newKeySet();
+    failed = ConcurrentHashMap.newKeySet();
+  }
+
+  public void start() {
+    thread = new Thread(this::run, "Preview clips");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  public Path getPath(SongsRepository.Entry entry) {
+    Path audio = getAudioPath(entry);
+    return dir.resolve(HashUtils.sha1Hex(
+        audio.toString(), entry.audioSize, entry.audioModified, entry.metadata.previewTimestamp
+    ) + ".ogg");
+  }
+
+  /**
+   * @return The clip for a song, or null if it hasn't been cut yet
+   */
+  public Path get(SongsRepository.Entry entry) {
+    if (!entry.audioExists) {
+      return null;
+    }
+    Path clip = getPath(entry);
+    if (Files.isRegularFile(clip)) {
+      cacheManager.touch(clip);
+      return clip;
+    }
+    return null;
+  }
+
+  /**
+   * @return Whether ffmpeg couldn't cut a clip for this song, or there's no audio to cut it from
+   */
+  public boolean hasFailed(SongsRepository.Entry entry) {
+    return !entry.audioExists || failed.contains(getPath(entry));
+  }
+
+  /**
+   * Queues a song to have its clip cut, unless it already has one or is already queued.
+   * @param urgent Whether to cut it before everything else that's queued
+   */
+  public void request(SongsRepository.Entry entry, boolean urgent) {
+    if (!entry.audioExists) {
+      return;
+    }
+    Path clip = getPath(entry);
+    if (failed.contains(clip)) {
+      return;
+    }
+    if (pending.add(clip)) {
+      if (urgent) {
+        queue.addFirst(entry);
+      } else {
+        queue.addLast(entry);
+      }
+    } else if (urgent && queue.remove(entry)) {
+      queue.addFirst(entry);
+    }
+  }
+
+  private void run() {
+    try {
+      while (true) {
+        SongsRepository.Entry entry = queue.take();
+        Path clip = getPath(entry);
+        try {
+          if (!Files.isRegularFile(clip)) {
+            cut(entry, clip);
+          }
+        } catch (IOException e) {
+          failed.add(clip);
+          System.err.println("Could not cut preview clip for <" + entry.dir + ">");
+          e.printStackTrace();
+        } finally {
+          pending.remove(clip);
+        }
+      }
+    } catch (InterruptedException e) {
+      // disposed
+    }
+  }
+
+  private void cut(SongsRepository.Entry entry, Path clip) throws IOException, InterruptedException {
+    Files.createDirectories(dir);
+    Path tempClip = dir.resolve(UUID.randomUUID().toString() + ".part");
+    try {
+      final float fadeOutStart = (CLIP_MILLIS - FADE_OUT_MILLIS) / 1000f;
+      String[] cmd = {
+          "ffmpeg",
+          "-v",
+          "warning",
+          "-y",
+          // seeking before the input is fast, since it doesn't decode everything before the preview point
+          "-ss",
+          String.format(Locale.ROOT, "%.3f", Math.max(0, entry.metadata.previewTimestamp) / 1000f),
+          "-t",
+          String.format(Locale.ROOT, "%.3f", CLIP_MILLIS / 1000f),
+          "-i",
+          getAudioPath(entry).toString(),
+          "-vn",
+          "-af",
+          String.format(
+              Locale.ROOT,
+              "loudnorm=I=-16:TP=-1.5:LRA=11,afade=t=in:d=%.3f,afade=t=out:st=%.3f:d=%.3f",
+              FADE_IN_MILLIS / 1000f, fadeOutStart, FADE_OUT_MILLIS / 1000f
+          ),
+          "-ar",
+          "44100",
+          "-c:a",
+          "libvorbis",
+          "-q:a",
+          "4",
+          "-f",
+          "ogg",
+          tempClip.toAbsolutePath().toString()
+      };
+      Process exec = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+      running = exec;
+      StringBuilder output = new StringBuilder();
+      final int exitValue;
+      try {
+        if (Thread.currentThread().isInterrupted()) {
+          // disposed before ffmpeg was published
+          throw new InterruptedException("Cutting preview clip for <" + entry.dir + "> was cancelled");
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(exec.getInputStream()))) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            if (Thread.currentThread().isInterrupted()) {
+              throw new InterruptedException("Cutting preview clip for <" + entry.dir + "> was cancelled");
+            }
+            output.append('\t').append(line).append('\n');
+          }
+        }
+        exitValue = exec.waitFor();
+      } finally {
+        running = null;
+        // only still running if this was interrupted or reading its output failed
+        if (exec.isAlive()) {
+          exec.destroy();
+        }
+      }
+      if (Thread.currentThread().isInterrupted()) {
+        // destroyed by dispose
+        throw new InterruptedException("Cutting preview clip for <" + entry.dir + "> was cancelled");
+      }
+      if (exitValue != 0 || !Files.isRegularFile(tempClip) || Files.size(tempClip) == 0) {
+        System.out.print("\t-- FFMPEG OUTPUT --\n" + output);
+        throw new IOException("ffmpeg exited with " + exitValue);
+      }
+      try {
+        Files.move(tempClip, clip, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempClip, clip, StandardCopyOption.REPLACE_EXISTING);
+      }
+      cacheManager.added(clip);
+    } finally {
+      Files.deleteIfExists(tempClip);
+    }
+  }
+
+  private static Path getAudioPath(SongsRepository.Entry entry) {
+    return Paths.get(entry.dir).resolve(entry.metadata.filePath).toAbsolutePath().normalize();
+  }
+
+  @Override
+  public void dispose() {
+    if (thread != null) {
+      thread.interrupt();
+    }
+    Process exec = running;
+    if (exec != null) {
+      exec.destroy();
+    }
+  }
+
+}
@@ -0,0 +1,186 @@
+package me.whizvox.lyrical.song;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.audio.Music;
+import com.badlogic.gdx.utils.Disposable;
+import me.whizvox.lyrical.util.MemoryFileHandle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Opens preview music for the song selection screen without blocking the render thread.
+ * <br>
+ * Preview clips are read into memory on a background thread, and music is then opened from memory on the render thread,
+ * since libGDX's audio backend expects music to be created there. Songs that can't have a clip cut, like when ffmpeg is
+ * missing, are previewed from their whole audio file instead, which is read the same way as long as it isn't too big.
+ * Opened music is kept around in a small LRU, so going back to a song that was just previewed doesn't open it again.
+ * <br>
+ * Except for {@link #dispose()}, everything here is meant to be called from the render thread.
+ */
+public class PreviewLoader implements Disposable {
+
+  private static final int
+      MAX_LOADED = 8,
+      MAX_OPEN = 4,
+      MAX_READ_BYTES = 32 * 1024 * 1024;
+
+  private final PreviewCache previewCache;
+  private final ExecutorService executor;
+  // clip bytes that have been read but not opened yet, shared with the loading thread
+  private final Map<Path, byte[]> loaded;
+  private final Set<Path> loading;
+  private final Map<Path, Music> open;
+  // files that couldn't be read or opened, so they aren't tried again every time the song is selected. shared with the
+  // loading thread.
+  private final Set<Path> broken;
+
+  public PreviewLoader(PreviewCache previewCache) {
+    this.previewCache = previewCache;
+    executor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "Preview loader");
+      thread.setDaemon(true);
+      return thread;
+    });
+    loaded = new LinkedHashMap<Path, byte[]>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Path, byte[]> eldest) {
+        return size() > MAX_LOADED;
+      }
+    };
+    loading = ConcurrentHashMap.newKeySet();
+    broken = ConcurrentHashMap.newKeySet();
+    open = new LinkedHashMap<Path, Music>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Path, Music> eldest) {
+        if (size() > MAX_OPEN) {
+          eldest.getValue().dispose();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Starts reading a song's preview clip in the background, or asks for the clip to be cut if there isn't one yet.
+   */
+  public void prefetch(SongsRepository.Entry entry) {
+    Path clip = previewCache.get(entry);
+    if (clip == null) {
+      previewCache.request(entry, true);
+    } else if (!open.containsKey(clip)) {
+      load(clip);
+    }
+  }
+
+  /**
+   * @return Music for the song's preview that's ready to play from the start, or null if it isn't ready yet, in which
+   * case it'll be loaded in the background and this should be called again later, or if it couldn't be opened. The
+   * music belongs to this loader, so it should be stopped rather than disposed once it's not needed.
+   */
+  public Music open(SongsRepository.Entry entry) {
+    Path clip = previewCache.get(entry);
+    Path key;
+    if (clip != null) {
+      key = clip;
+    } else if (previewCache.hasFailed(entry) && entry.audioExists) {
+      // there won't be a clip, so fall back to the whole song
+      key = Paths.get(entry.dir).resolve(entry.metadata.filePath);
+    } else {
+      previewCache.request(entry, true);
+      return null;
+    }
+    Music music = open.get(key);
+    if (music != null) {
+      return music;
+    }
+    if (broken.contains(key)) {
+      return null;
+    }
+    byte[] bytes;
+    synchronized (loaded) {
+      bytes = loaded.remove(key);
+    }
+    if (bytes == null) {
+      load(key);
+      return null;
+    }
+    try {
+      music = Gdx.audio.newMusic(new MemoryFileHandle(key.toString(), bytes));
+      music.setLooping(clip != null);
+      open.put(key, music);
+      return music;
+    } catch (Exception e) {
+      broken.add(key);
+      System.err.println("Could not open preview <" + key + ">");
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Gives up the music that's being used as a song's preview when it's the whole song rather than a clip, so it can be
+   * played from the start instead of being opened again.
+   * @return The music, which now belongs to the caller, or null if the song's preview isn't the whole song
+   */
+  public Music release(SongsRepository.Entry entry) {
+    if (!entry.audioExists) {
+      return null;
+    }
+    return open.remove(Paths.get(entry.dir).resolve(entry.metadata.filePath));
+  }
+
+  private void load(Path file) {
+    synchronized (loaded) {
+      if (loaded.containsKey(file)) {
+        return;
+      }
+    }
+    if (!loading.add(file)) {
+      return;
+    }
+    executor.execute(() -> {
+      try {
+        if (Files.size(file) > MAX_READ_BYTES) {
+          // a whole song that's too big to keep in memory, so it just isn't previewed
+          broken.add(file);
+          return;
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        synchronized (loaded) {
+          loaded.put(file, bytes);
+        }
+      } catch (IOException e) {
+        broken.add(file);
+        System.err.println("Could not read preview <" + file + ">");
+        e.printStackTrace();
+      } finally {
+        loading.remove(file);
+      }
+    });
+  }
+
+  /**
+   * Disposes every opened music, but keeps loaded clips around.
+   */
+  public void closeAll() {
+    open.values().forEach(Music::dispose);
+    open.clear();
+  }
+
+  @Override
+  public void dispose() {
+    closeAll();
+    executor.shutdownNow();
+  }
+
+}
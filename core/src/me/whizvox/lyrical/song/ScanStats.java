@@ -0,0 +1,32 @@
+package me.whizvox.lyrical.song;
+
+/**
+ * Numbers from the last full scan of a {@link SongsRepository}.
+ */
+public class ScanStats {
+
+  public final int directories;
+  public final int reread;
+  public final int failures;
+  public final int threads;
+  public final long millis;
+
+  public ScanStats(int directories, int reread, int failures, int threads, long millis) {
+    this.directories = directories;
+    this.reread = reread;
+    this.failures = failures;
+    this.threads = threads;
+    this.millis = millis;
+  }
+
+  public double getFilesPerSecond() {
+    return directories * 1000.0 / Math.max(millis, 1);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d song dir(s), %d re-read, %d failed in %dms on %d thread(s) (%.0f files/sec)",
+        directories, reread, failures, millis, threads, getFilesPerSecond());
+  }
+
+}
@@ -6,98 +6,127 @@ import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.utils.Disposable;
 import me.whizvox.lyrical.Lyrical;
 import me.whizvox.lyrical.Reference;
+import me.whizvox.lyrical.util.Clock;
 import me.whizvox.lyrical.util.Pair;
+import me.whizvox.lyrical.util.RecordScanner;
 import me.whizvox.lyrical.util.StringUtils;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.UUID;
+import java.nio.file.Paths;
 
 public class Song implements Disposable {
 
   public final Metadata metadata;
-  public final List<Line> lines;
+  public final LineTimeline lines;
 
   private int timestamp;
   private int currentLine;
   private float progress;
   private Music music;
 
-  private long start;
-  private long paused;
+  private final AudioClock clock;
+  private boolean started;
+  private boolean paused;
 
-  private Song(Metadata metadata, List<Line> lines) {
+  Song(Metadata metadata, LineTimeline lines, Clock clock) {
     this.metadata = metadata;
     this.lines = lines;
 
     timestamp = 0;
     currentLine = 0;
     progress = 0;
-    start = -1;
-    paused = 0;
+    this.clock = new AudioClock(clock);
+    started = false;
+    paused = false;
+  }
+
+  /**
+   * @param clock What the song's timing is measured with. A song without music only ever follows this clock, which is
+   *              how its lines can be replayed faster than real time with a
+   *              {@link me.whizvox.lyrical.util.SimulatedClock}.
+   */
+  public Song(Clock clock) {
+    this(new Metadata(), new LineTimeline(), clock);
   }
 
   public Song() {
-    this(new Metadata(), new ArrayList<>());
+    this(Clock.SYSTEM);
   }
 
   public void play() {
-    music.play();
-    music.setVolume(Lyrical.getInstance().getSettings().getInt(Reference.Settings.MUSIC_VOLUME, Reference.Defaults.MUSIC_VOLUME) / 100f);
-    start = System.currentTimeMillis();
+    if (music != null) {
+      music.play();
+      music.setVolume(Lyrical.getInstance().getSettings().getInt(Reference.Settings.MUSIC_VOLUME, Reference.Defaults.MUSIC_VOLUME) / 100f);
+    }
+    clock.reset(0);
+    clock.start();
+    started = true;
+    paused = false;
   }
 
   public boolean isPlaying() {
-    return start != -1;
+    return started;
   }
 
   public boolean hasFinished() {
-    if (currentLine != -1) {
-      return timestamp > getCurrentLine().end;
+    if (isPlaying() && currentLine < lines.size()) {
+      return timestamp > lines.getEnd(currentLine);
     }
     return true;
   }
 
   public void pause() {
-    music.pause();
-    paused = System.currentTimeMillis();
+    if (music != null) {
+      music.pause();
+    }
+    clock.stop();
+    paused = true;
   }
 
   public void resume() {
-    music.play();
-    music.setVolume(Lyrical.getInstance().getSettings().getInt(Reference.Settings.MUSIC_VOLUME, Reference.Defaults.MUSIC_VOLUME) / 100f);
-    start += System.currentTimeMillis() - paused;
-    paused = 0;
+    if (music != null) {
+      music.play();
+      music.setVolume(Lyrical.getInstance().getSettings().getInt(Reference.Settings.MUSIC_VOLUME, Reference.Defaults.MUSIC_VOLUME) / 100f);
+    }
+    clock.start();
+    paused = false;
   }
 
   public boolean isPaused() {
-    return paused != 0;
+    return paused;
   }
 
   public void reset() {
-    currentLine = 0;
+    seek(timestamp);
   }
 
   public void tick() {
-    timestamp = (int)(System.currentTimeMillis() - start - metadata.offset);
-    if (!lines.isEmpty()) {
-      Line c = getCurrentLine();
-      while (timestamp > c.end && currentLine < lines.size() - 1) {
-        c = lines.get(++currentLine);
-        progress = 0;
-      }
-      if (timestamp > c.end) {
-        progress = 0;
-      } else if (timestamp >= c.begin) {
-        progress = 1 - (float) (c.end - timestamp) / (c.end - c.begin);
-      }
+    // the audio stops reporting a position once it reaches the end, so the clock carries on by itself from there
+    final float audioSeconds = music != null && music.isPlaying() ? music.getPosition() : -1;
+    timestamp = (int) clock.update(audioSeconds) - metadata.offset;
+    seek(timestamp);
+  }
+
+  // jumps straight to the line that should be showing at the timestamp, whether it's ahead of or behind the current one
+  private void seek(int timestamp) {
+    if (lines.isEmpty()) {
+      currentLine = 0;
+      progress = 0;
+      return;
+    }
+    currentLine = lines.indexAt(timestamp);
+    final int begin = lines.getBegin(currentLine);
+    final int end = lines.getEnd(currentLine);
+    if (timestamp > end || timestamp < begin) {
+      progress = 0;
+    } else {
+      progress = 1 - (float) (end - timestamp) / (end - begin);
     }
   }
 
@@ -105,33 +134,30 @@ public class Song implements Disposable {
     return progress;
   }
 
-  public Line getCurrentLine() {
-    if (isPlaying()) {
-      return lines.get(currentLine);
-    }
-    return null;
-  }
-
   public int getCurrentLineIndex() {
     return currentLine;
   }
 
   public void skip(int pos) {
-    if (pos < 0) {
-      pos = 0;
-    }
-    if (!music.isPlaying()) {
+    // pos is a lyric timestamp, the audio is ahead of it by the offset
+    final int audioPos = Math.max(0, pos + metadata.offset);
+    if (music == null) {
+      if (!isPlaying()) {
+        play();
+        pause();
+      }
+    } else if (!music.isPlaying()) {
       if (isPaused()) {
         resume();
       } else {
         play();
       }
-      music.setPosition(pos / 1000f);
+      music.setPosition(audioPos / 1000f);
       pause();
     } else {
-      music.setPosition(pos / 1000f);
+      music.setPosition(audioPos / 1000f);
     }
-    start += timestamp - pos;
+    clock.reset(audioPos);
     tick();
   }
 
@@ -143,11 +169,26 @@ public class Song implements Disposable {
     return music;
   }
 
-  public void save(Writer writer) throws IOException {
-    metadata.length = 0;
-    if (!lines.isEmpty()) {
-      metadata.length = lines.get(lines.size() - 1).end / 1000;
+  /**
+   * Swaps in different audio for the same song, like a WAV copy that seeks more precisely. Whatever was playing
+   * carries on from the same position, and the old music is disposed.
+   */
+  public void replaceMusic(Music newMusic) {
+    music.dispose();
+    music = newMusic;
+    if (isPlaying()) {
+      final double position = clock.getMillis();
+      music.play();
+      music.setVolume(Lyrical.getInstance().getSettings().getInt(Reference.Settings.MUSIC_VOLUME, Reference.Defaults.MUSIC_VOLUME) / 100f);
+      music.setPosition((float) (position / 1000));
+      if (isPaused()) {
+        music.pause();
+      }
     }
+  }
+
+  public void save(Writer writer) throws IOException {
+    metadata.length = lines.getLastEnd() / 1000;
     writer.write("[Version=1]\n");
     writer.write("[Metadata]\n");
     writer.write("Title=" + metadata.title + "\n");
@@ -160,8 +201,22 @@ public class Song implements Disposable {
     writer.write("Preview=" + metadata.previewTimestamp + "\n");
     writer.write("Background=" + metadata.background + "\n");
     writer.write("[Lines]\n");
-    for (Line line : lines) {
-      writer.write(line.begin + "," + line.end + "," + line.text + "\n");
+    for (int i = 0; i < lines.size(); i++) {
+      writer.write(lines.getBegin(i) + "," + lines.getEnd(i) + "," + lines.getText(i) + "\n");
+    }
+  }
+
+  public void save(FileHandle dir) throws IOException {
+    FileHandle songIni = dir.child("song.ini");
+    try (Writer writer = songIni.writer(false, "UTF-8")) {
+      save(writer);
+    }
+    try {
+      CompiledChart.write(this, Paths.get(songIni.path()));
+    } catch (IOException e) {
+      // song.ini is still authoritative, so a missing sidecar only means a slower load
+      System.err.println("Could not write compiled chart for " + songIni.path());
+      e.printStackTrace();
     }
   }
 
@@ -172,44 +227,6 @@ public class Song implements Disposable {
     }
   }
 
-  public static void swapWithWav(String filePath, Song song) {
-    FileHandle[] list = Reference.Files.CACHE_DIR.list(".wav");
-    for (FileHandle fh : list) {
-      System.out.println("Deleting " + fh.path());
-      fh.delete();
-    }
-    FileHandle inFile = Gdx.files.local(filePath).child(song.metadata.filePath);
-    FileHandle outFile = Reference.Files.CACHE_DIR.child(UUID.randomUUID().toString() + ".wav");
-    try {
-      String[] cmd = {
-          "ffmpeg",
-          "-v",
-          "warning",
-          "-i",
-          inFile.path(), // getting the absolute path doesn't work??
-          outFile.file().getAbsolutePath()
-      };
-      System.out.println("Executing command: " + Arrays.toString(cmd));
-      Process exec = Runtime.getRuntime().exec(cmd);
-      System.out.println("\tExit value: " + exec.waitFor());
-      boolean anyErrorOut = false;
-      try (BufferedReader reader = new BufferedReader(new InputStreamReader(exec.getErrorStream()))) {
-        String line;
-        while ((line = reader.readLine()) != null) {
-          if (!anyErrorOut) {
-            System.out.println("\t-- ERROR OUTPUT --");
-            anyErrorOut = true;
-          }
-          System.out.println("\t" + line);
-        }
-      }
-      song.music.dispose();
-      song.music = Gdx.audio.newMusic(Gdx.files.absolute(outFile.file().getAbsolutePath()));
-    } catch (IOException | InterruptedException e) {
-      e.printStackTrace();
-    }
-  }
-
   public static class Metadata {
     public String title;
     public String artist;
@@ -234,119 +251,148 @@ public class Song implements Disposable {
     }
   }
 
-  private static Object readObject(Path filePath, boolean readMetadataOnly) throws IOException {
-    try (BufferedReader reader = Files.newBufferedReader(filePath)) {
-      String line;
+  private static Song parseIni(Path filePath, boolean readMetadataOnly, RecordScanner scanner, Clock clock)
+      throws IOException {
+    try (Reader reader = new InputStreamReader(Files.newInputStream(filePath), StandardCharsets.UTF_8)) {
+      scanner.reset(reader);
       boolean readMetadata = false;
       boolean readLines = false;
-      List<String> tokens = new ArrayList<>();
-      Song song = new Song(new Metadata(), new ArrayList<>());
-      while ((line = reader.readLine()) != null) {
-        if (!line.isEmpty()) {
-          if ("[Metadata]".equals(line)) {
+      Song song = new Song(new Metadata(), new LineTimeline(), clock);
+      while (scanner.nextLine()) {
+        if (!scanner.isEmpty()) {
+          if (scanner.lineEquals("[Metadata]")) {
             readMetadata = true;
             readLines = false;
-          } else if ("[Lines]".equals(line)) {
+          } else if (scanner.lineEquals("[Lines]")) {
             if (readMetadataOnly) {
               break;
             }
             readLines = true;
             readMetadata = false;
           } else if (readMetadata) {
-            StringUtils.tokenize(line, '=', 2, tokens);
-            if (tokens.size() == 2) {
-              final String key = tokens.get(0);
-              final String value = tokens.get(1);
-              switch (key) {
-                case "Title":
-                  song.metadata.title = value;
-                  break;
-                case "Artist":
-                  song.metadata.artist = value;
-                  break;
-                case "Language":
-                  song.metadata.language = value;
-                  break;
-                case "Length":
-                  song.metadata.length = Integer.parseInt(value);
-                  break;
-                case "File":
-                  song.metadata.filePath = value;
-                  break;
-                case "Charter":
-                  song.metadata.charter = value;
-                  break;
-                case "Offset":
-                  song.metadata.offset = Integer.parseInt(value);
-                  break;
-                case "Preview":
-                  song.metadata.previewTimestamp = Integer.parseInt(value);
-                  break;
-                case "Background":
-                  song.metadata.background = value;
-                  break;
-                default:
-                  System.err.println("Invalid metadata key: " + key);
+            if (scanner.split('=', 2) == 2) {
+              if (scanner.fieldEquals(0, "Title")) {
+                song.metadata.title = scanner.fieldString(1);
+              } else if (scanner.fieldEquals(0, "Artist")) {
+                song.metadata.artist = scanner.fieldString(1);
+              } else if (scanner.fieldEquals(0, "Language")) {
+                song.metadata.language = scanner.fieldString(1);
+              } else if (scanner.fieldEquals(0, "Length")) {
+                song.metadata.length = scanner.fieldInt(1);
+              } else if (scanner.fieldEquals(0, "File")) {
+                song.metadata.filePath = scanner.fieldString(1);
+              } else if (scanner.fieldEquals(0, "Charter")) {
+                song.metadata.charter = scanner.fieldString(1);
+              } else if (scanner.fieldEquals(0, "Offset")) {
+                song.metadata.offset = scanner.fieldInt(1);
+              } else if (scanner.fieldEquals(0, "Preview")) {
+                song.metadata.previewTimestamp = scanner.fieldInt(1);
+              } else if (scanner.fieldEquals(0, "Background")) {
+                song.metadata.background = scanner.fieldString(1);
+              } else {
+                System.err.println("Invalid metadata key: " + scanner.fieldString(0));
               }
             } else {
-              System.err.println("Invalid line: " + line + " (not enough tokens)");
+              System.err.println("Invalid line: " + scanner.lineString() + " (not enough tokens)");
             }
           } else if (readLines) {
-            StringUtils.tokenize(line, ',', 3, tokens);
-            if (tokens.size() == 3) {
-              Line l = new Line();
-              l.begin = Integer.parseInt(tokens.get(0));
-              l.end = Integer.parseInt(tokens.get(1));
-              l.text = tokens.get(2);
-              song.lines.add(l);
+            if (scanner.split(',', 3) == 3) {
+              song.lines.add(scanner.fieldInt(0), scanner.fieldInt(1), scanner.fieldString(2));
             } else {
-              System.err.println("Invalid lines line (not enough tokens): " + line);
+              System.err.println("Invalid lines line (not enough tokens): " + scanner.lineString());
             }
           }
         }
       }
-      if (readMetadataOnly) {
-        return song.metadata;
-      }
-      FileHandle audioPath = Gdx.files.local(filePath.getParent().resolve(song.metadata.filePath).toString());
-      if (audioPath.exists()) {
-        song.music = Gdx.audio.newMusic(audioPath);
-      } else {
-        System.err.println("Could not load audio, as it does not exist: " + audioPath.path());
-        song.music = Gdx.audio.newMusic(Gdx.files.internal("silence.wav"));
-      }
       return song;
     }
   }
 
+  private static Object readObject(Path filePath, boolean readMetadataOnly, RecordScanner scanner, Clock clock,
+                                   MusicHandoff musicHandoff) throws IOException {
+    Song song = CompiledChart.read(filePath, readMetadataOnly, clock);
+    if (song == null) {
+      song = parseIni(filePath, readMetadataOnly, scanner, clock);
+    }
+    if (readMetadataOnly) {
+      return song.metadata;
+    }
+    FileHandle audioPath = Gdx.files.local(filePath.getParent().resolve(song.metadata.filePath).toString());
+    if (audioPath.exists()) {
+      song.music = musicHandoff != null ? musicHandoff.open(audioPath) : Gdx.audio.newMusic(audioPath);
+    } else {
+      System.err.println("Could not load audio, as it does not exist: " + audioPath.path());
+      song.music = Gdx.audio.newMusic(Gdx.files.internal("silence.wav"));
+    }
+    return song;
+  }
+
+  public static Metadata readMetadata(Path filePath, RecordScanner scanner) throws IOException {
+    return (Metadata)readObject(filePath, true, scanner, Clock.SYSTEM, null);
+  }
+
   public static Metadata readMetadata(Path filePath) throws IOException {
-    return (Metadata)readObject(filePath, true);
+    return readMetadata(filePath, new RecordScanner(1024));
+  }
+
+  /**
+   * @param musicHandoff Where to take the song's music from if it was opened ahead of time. Can be null.
+   */
+  public static Song readSong(Path filePath, Clock clock, MusicHandoff musicHandoff) throws IOException {
+    return (Song)readObject(filePath, false, new RecordScanner(), clock, musicHandoff);
+  }
+
+  public static Song readSong(Path filePath, Clock clock) throws IOException {
+    return readSong(filePath, clock, null);
   }
 
   public static Song readSong(Path filePath) throws IOException {
-    return (Song)readObject(filePath, false);
+    return readSong(filePath, Clock.SYSTEM);
   }
 
-  public static Pair<String, Song> createSong(String importPath) {
-    FileHandle importHandle = Reference.Files.IMPORT_DIR.child(importPath);
+  /**
+   * Moves a file out of the import directory into a new song directory and writes a blank song.ini for it. The audio
+   * isn't loaded, so this can be called from any thread.
+   * @param info What was probed from the file, to fill in the song's title and artist. Can be null.
+   * @return The new song's directory and the song, or null if the file doesn't exist
+   */
+  public static Pair<String, Song> importSong(FileHandle importHandle, AudioProbe.Info info) {
     if (!importHandle.exists()) {
       return null;
     }
-    FileHandle resDir = Reference.Files.SONGS_DIR.child(importHandle.nameWithoutExtension());
-    resDir.mkdirs();
+    FileHandle resDir;
+    // claimed under a lock, so two imports with the same name never share a directory
+    synchronized (Song.class) {
+      resDir = Reference.Files.SONGS_DIR.child(StringUtils.resolveConflictingFilePath(
+          Reference.Files.SONGS_DIR.path(), importHandle.nameWithoutExtension()
+      ));
+      resDir.mkdirs();
+    }
     FileHandle resMusicFile = resDir.child(importHandle.name());
     importHandle.moveTo(resMusicFile);
     Song song = new Song();
     song.metadata.filePath = resMusicFile.name();
-    song.music = Gdx.audio.newMusic(resMusicFile);
-    FileHandle songIni = resDir.child("song.ini");
-    try (Writer writer = songIni.writer(true)) {
-      song.save(writer);
+    if (info != null) {
+      info.applyTo(song.metadata);
+    }
+    try {
+      song.save(resDir);
     } catch (IOException e) {
-      System.err.println("Could not save song to " + songIni.path());
+      System.err.println("Could not save song to " + resDir.child("song.ini").path());
       throw new RuntimeException(e);
     }
     return new Pair<>(resDir.path(), song);
   }
 
+  public static Pair<String, Song> createSong(String importPath) {
+    FileHandle importHandle = Reference.Files.IMPORT_DIR.child(importPath);
+    // only if it's already been probed, since this is on the render thread
+    AudioProbe.Info info = Lyrical.getInstance().getAudioProbe().getIfDone(Paths.get(importHandle.path()));
+    Pair<String, Song> pair = importSong(importHandle, info);
+    if (pair != null) {
+      pair.second.music = Gdx.audio.newMusic(Gdx.files.local(pair.first).child(pair.second.metadata.filePath));
+    }
+    return pair;
+  }
+
 }
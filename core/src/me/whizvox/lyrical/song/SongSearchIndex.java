@@ -0,0 +1,277 @@
+package me.whizvox.lyrical.song;
+
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.LongMap;
+import com.badlogic.gdx.utils.ObjectIntMap;
+
+/**
+ * In-memory full text index over the title, artist and charter of every song in a {@link SongsRepository}.
+ * <br>
+ * Text is normalized to lower case letters and digits, with any run of other characters collapsed into a single space.
+ * Every song gets an id, and postings lists of ids are kept for each trigram of its text, as well as for the first one
+ * and two characters of every word. Queries of three or more characters look up the shortest postings list among the
+ * query's trigrams and verify each candidate, while shorter queries are answered straight from the word prefix
+ * postings.
+ * <br>
+ * {@link #search(CharSequence, IntArray)} doesn't allocate anything as long as the query and results fit in the buffers
+ * it has already grown to, so it's safe to call on every keystroke. Removed songs leave their id behind in the
+ * postings until enough of them pile up for the index to be rebuilt.
+ * <br>
+ * Indices that are part of a {@link SongsRepository.Snapshot} are never modified again. Changes are made to a copy,
+ * which shares every postings list with the index it was copied from, and only copies a list the first time one of its
+ * own songs is added to it. Changing a few songs only copies the lists their text touches, not the whole index.
+ */
+public class SongSearchIndex {
+
+  private static final char FIELD_SEPARATOR = '\u0000';
+  private static final int MIN_COMPACT_GARBAGE = 1024;
+
+  private final LongMap<IntArray> postings;
+  // keys of the postings lists that belong to this index, rather than being shared with the one it was copied from
+  private final LongMap<Boolean> ownedPostings;
+  private final ObjectIntMap<String> idsByDir;
+  // indexed by id, null if the song has been removed
+  private final Array<SongsRepository.Entry> entries;
+  private final Array<String> texts;
+  private int live;
+
+  private char[] queryBuf;
+
+  public SongSearchIndex() {
+    postings = new LongMap<>();
+    ownedPostings = new LongMap<>();
+    idsByDir = new ObjectIntMap<>();
+    entries = new Array<>();
+    texts = new Array<>();
+    live = 0;
+    queryBuf = new char[256];
+  }
+
+  public SongSearchIndex(SongSearchIndex other) {
+    synchronized (other) {
+      postings = new LongMap<>(other.postings);
+      ownedPostings = new LongMap<>();
+      idsByDir = new ObjectIntMap<>(other.idsByDir);
+      entries = new Array<>(other.entries);
+      texts = new Array<>(other.texts);
+      live = other.live;
+    }
+    queryBuf = new char[256];
+  }
+
+  public synchronized void put(SongsRepository.Entry entry) {
+    remove(entry.dir);
+    final int id = entries.size;
+    final String text = normalize(entry.metadata);
+    entries.add(entry);
+    texts.add(text);
+    idsByDir.put(entry.dir, id);
+    live++;
+    for (int i = 0; i < text.length(); i++) {
+      final char c = text.charAt(i);
+      if (c == FIELD_SEPARATOR) {
+        continue;
+      }
+      if (c != ' ' && (i == 0 || !isWordChar(text.charAt(i - 1)))) {
+        addPosting(prefixKey(c), id);
+        if (i + 1 < text.length() && isWordChar(text.charAt(i + 1))) {
+          addPosting(prefixKey(c, text.charAt(i + 1)), id);
+        }
+      }
+      if (i + 2 < text.length() && text.charAt(i + 1) != FIELD_SEPARATOR && text.charAt(i + 2) != FIELD_SEPARATOR) {
+        addPosting(trigramKey(c, text.charAt(i + 1), text.charAt(i + 2)), id);
+      }
+    }
+  }
+
+  public synchronized void remove(String dir) {
+    final int id = idsByDir.remove(dir, -1);
+    if (id != -1) {
+      entries.set(id, null);
+      texts.set(id, null);
+      live--;
+      final int garbage = entries.size - live;
+      if (garbage > MIN_COMPACT_GARBAGE && garbage > live) {
+        rebuild();
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    postings.clear();
+    ownedPostings.clear();
+    idsByDir.clear();
+    entries.clear();
+    texts.clear();
+    live = 0;
+  }
+
+  /**
+   * @return The id of the song in <code>dir</code>, or -1 if it isn't in the index. Ids can change whenever songs are
+   * added or removed.
+   */
+  public synchronized int getId(String dir) {
+    return idsByDir.get(dir, -1);
+  }
+
+  /**
+   * @return One more than the largest id currently in use
+   */
+  public synchronized int getIdLimit() {
+    return entries.size;
+  }
+
+  /**
+   * Finds every song whose normalized title, artist or charter contains the normalized query.
+   * @param results Cleared, then filled with the ids of the matching songs in ascending order. An empty query matches
+   *                every song.
+   * @return The number of results
+   */
+  public synchronized int search(CharSequence query, IntArray results) {
+    results.clear();
+    final int length = normalizeQuery(query);
+    if (length == 0) {
+      for (int id = 0; id < entries.size; id++) {
+        if (entries.get(id) != null) {
+          results.add(id);
+        }
+      }
+    } else if (length < 3) {
+      IntArray candidates = postings.get(length == 1 ? prefixKey(queryBuf[0]) : prefixKey(queryBuf[0], queryBuf[1]));
+      if (candidates != null) {
+        for (int i = 0; i < candidates.size; i++) {
+          final int id = candidates.items[i];
+          if (entries.get(id) != null) {
+            results.add(id);
+          }
+        }
+      }
+    } else {
+      IntArray candidates = null;
+      for (int i = 0; i + 2 < length; i++) {
+        IntArray p = postings.get(trigramKey(queryBuf[i], queryBuf[i + 1], queryBuf[i + 2]));
+        if (p == null) {
+          return 0;
+        }
+        if (candidates == null || p.size < candidates.size) {
+          candidates = p;
+        }
+      }
+      for (int i = 0; i < candidates.size; i++) {
+        final int id = candidates.items[i];
+        final String text = texts.get(id);
+        if (text != null && contains(text, queryBuf, length)) {
+          results.add(id);
+        }
+      }
+    }
+    return results.size;
+  }
+
+  private void rebuild() {
+    Array<SongsRepository.Entry> oldEntries = new Array<>(entries);
+    clear();
+    for (SongsRepository.Entry entry : oldEntries) {
+      if (entry != null) {
+        put(entry);
+      }
+    }
+  }
+
+  private void addPosting(long key, int id) {
+    IntArray p = postings.get(key);
+    if (p == null) {
+      p = new IntArray(4);
+      postings.put(key, p);
+      ownedPostings.put(key, Boolean.TRUE);
+    } else if (!ownedPostings.containsKey(key)) {
+      // still shared with the index this was copied from, which can't change
+      IntArray shared = p;
+      p = new IntArray(shared.size + 4);
+      p.addAll(shared);
+      postings.put(key, p);
+      ownedPostings.put(key, Boolean.TRUE);
+    }
+    // the same trigram can show up more than once in a song
+    if (p.size == 0 || p.items[p.size - 1] != id) {
+      p.add(id);
+    }
+  }
+
+  private int normalizeQuery(CharSequence query) {
+    if (queryBuf.length < query.length()) {
+      queryBuf = new char[query.length() * 2];
+    }
+    int length = 0;
+    for (int i = 0; i < query.length(); i++) {
+      final char c = normalize(query.charAt(i));
+      if (c != ' ' || (length > 0 && queryBuf[length - 1] != ' ')) {
+        queryBuf[length++] = c;
+      }
+    }
+    if (length > 0 && queryBuf[length - 1] == ' ') {
+      length--;
+    }
+    return length;
+  }
+
+  private static boolean contains(String text, char[] query, int length) {
+    final int last = text.length() - length;
+    for (int i = 0; i <= last; i++) {
+      int j = 0;
+      while (j < length && text.charAt(i + j) == query[j]) {
+        j++;
+      }
+      if (j == length) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isWordChar(char c) {
+    return c != ' ' && c != FIELD_SEPARATOR;
+  }
+
+  private static char normalize(char c) {
+    return Character.isLetterOrDigit(c) ? Character.toLowerCase(c) : ' ';
+  }
+
+  private static String normalize(Song.Metadata metadata) {
+    StringBuilder sb = new StringBuilder(metadata.title.length() + metadata.artist.length() +
+        metadata.charter.length() + 2);
+    appendNormalized(sb, metadata.title);
+    sb.append(FIELD_SEPARATOR);
+    appendNormalized(sb, metadata.artist);
+    sb.append(FIELD_SEPARATOR);
+    appendNormalized(sb, metadata.charter);
+    return sb.toString();
+  }
+
+  private static void appendNormalized(StringBuilder sb, String s) {
+    final int start = sb.length();
+    for (int i = 0; i < s.length(); i++) {
+      final char c = normalize(s.charAt(i));
+      if (c != ' ' || (sb.length() > start && sb.charAt(sb.length() - 1) != ' ')) {
+        sb.append(c);
+      }
+    }
+    if (sb.length() > start && sb.charAt(sb.length() - 1) == ' ') {
+      sb.setLength(sb.length() - 1);
+    }
+  }
+
+  private static long prefixKey(char c) {
+    return (1L << 48) | c;
+  }
+
+  private static long prefixKey(char c1, char c2) {
+    return (2L << 48) | ((long) c1 << 16) | c2;
+  }
+
+  private static long trigramKey(char c1, char c2, char c3) {
+    return ((long) c1 << 32) | ((long) c2 << 16) | c3;
+  }
+
+}
@@ -0,0 +1,243 @@
+package me.whizvox.lyrical.song;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Every song in a {@link SongsRepository}, along with the order they should be listed in for each {@link Key}.
+ * <br>
+ * Text fields are compared through {@link CollationKey}s from the default locale's {@link Collator}, which are only
+ * computed when a song is first added or has changed. Orders are kept as permutations of song indices, so switching
+ * between them doesn't sort or allocate anything.
+ * <br>
+ * Instances never change after they're created. {@link #update(Collection, Collection)} creates a new instance by
+ * merging a few changes into the existing orders instead of sorting everything again.
+ */
+public class SongSortOrders {
+
+  public enum Key {
+    TITLE("Title"),
+    ARTIST("Artist"),
+    LENGTH("Length"),
+    LANGUAGE("Language"),
+    CHARTER("Charter");
+
+    public final String displayName;
+
+    Key(String displayName) {
+      this.displayName = displayName;
+    }
+
+    public Key next() {
+      return values()[(ordinal() + 1) % values().length];
+    }
+  }
+
+  private static final Key[] KEYS = Key.values();
+
+  private final SongsRepository.Entry[] entries;
+  private final SortKeys[] keys;
+  // orders[key.ordinal()][position] = index into entries
+  private final int[][] orders;
+
+  private SongSortOrders(SongsRepository.Entry[] entries, SortKeys[] keys, int[][] orders) {
+    this.entries = entries;
+    this.keys = keys;
+    this.orders = orders;
+  }
+
+  public int size() {
+    return entries.length;
+  }
+
+  public SongsRepository.Entry getEntry(int index) {
+    return entries[index];
+  }
+
+  /**
+   * @return The index of the song at <code>position</code> when ordered by <code>key</code>
+   */
+  public int getIndex(Key key, int position) {
+    return orders[key.ordinal()][position];
+  }
+
+  /**
+   * Creates a new instance with some songs added, replaced or removed. Orders are updated by dropping the changed and
+   * removed songs, then inserting the changed ones back in with a binary search each.
+   * @param changed Songs that were added or changed
+   * @param removedDirs Directories of songs that were removed
+   */
+  public SongSortOrders update(Collection<SongsRepository.Entry> changed, Collection<String> removedDirs) {
+    Set<String> dropped = new HashSet<>(removedDirs);
+    for (SongsRepository.Entry entry : changed) {
+      dropped.add(entry.dir);
+    }
+    List<SongsRepository.Entry> newEntries = new ArrayList<>(entries.length + changed.size());
+    List<SortKeys> newKeys = new ArrayList<>(entries.length + changed.size());
+    // remap[old index] = new index, or -1 if the song was dropped
+    int[] remap = new int[entries.length];
+    for (int i = 0; i < entries.length; i++) {
+      if (dropped.contains(entries[i].dir)) {
+        remap[i] = -1;
+      } else {
+        remap[i] = newEntries.size();
+        newEntries.add(entries[i]);
+        newKeys.add(keys[i]);
+      }
+    }
+    final int kept = newEntries.size();
+    Collator collator = Collator.getInstance();
+    for (SongsRepository.Entry entry : changed) {
+      newEntries.add(entry);
+      newKeys.add(new SortKeys(entry, collator));
+    }
+    SortKeys[] keysArr = newKeys.toArray(new SortKeys[0]);
+    int[][] newOrders = new int[KEYS.length][];
+    for (Key key : KEYS) {
+      int[] oldOrder = orders[key.ordinal()];
+      int[] order = new int[keysArr.length];
+      int n = 0;
+      for (int index : oldOrder) {
+        if (remap[index] != -1) {
+          order[n++] = remap[index];
+        }
+      }
+      for (int added = kept; added < keysArr.length; added++) {
+        int low = 0;
+        int high = n;
+        while (low < high) {
+          final int mid = (low + high) >>> 1;
+          if (compare(key, keysArr[order[mid]], keysArr[added]) < 0) {
+            low = mid + 1;
+          } else {
+            high = mid;
+          }
+        }
+        System.arraycopy(order, low, order, low + 1, n - low);
+        order[low] = added;
+        n++;
+      }
+      newOrders[key.ordinal()] = order;
+    }
+    return new SongSortOrders(newEntries.toArray(new SongsRepository.Entry[0]), keysArr, newOrders);
+  }
+
+  public static SongSortOrders empty() {
+    int[][] orders = new int[KEYS.length][];
+    for (Key key : KEYS) {
+      orders[key.ordinal()] = new int[0];
+    }
+    return new SongSortOrders(new SongsRepository.Entry[0], new SortKeys[0], orders);
+  }
+
+  /**
+   * Sorts every song from scratch.
+   * @param previous Collation keys of songs that are also in <code>previous</code> are reused, can be null
+   */
+  public static SongSortOrders build(Collection<SongsRepository.Entry> songs, SongSortOrders previous) {
+    Map<SongsRepository.Entry, SortKeys> reusable = new IdentityHashMap<>();
+    if (previous != null) {
+      for (int i = 0; i < previous.entries.length; i++) {
+        reusable.put(previous.entries[i], previous.keys[i]);
+      }
+    }
+    SongsRepository.Entry[] entries = songs.toArray(new SongsRepository.Entry[0]);
+    SortKeys[] keys = new SortKeys[entries.length];
+    Collator collator = Collator.getInstance();
+    for (int i = 0; i < entries.length; i++) {
+      SortKeys k = reusable.get(entries[i]);
+      keys[i] = k == null ? new SortKeys(entries[i], collator) : k;
+    }
+    int[][] orders = new int[KEYS.length][];
+    int[] temp = new int[entries.length];
+    for (Key key : KEYS) {
+      int[] order = new int[entries.length];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      mergeSort(key, keys, order, temp, 0, order.length);
+      orders[key.ordinal()] = order;
+    }
+    return new SongSortOrders(entries, keys, orders);
+  }
+
+  private static void mergeSort(Key key, SortKeys[] keys, int[] order, int[] temp, int from, int to) {
+    if (to - from < 2) {
+      return;
+    }
+    final int mid = (from + to) >>> 1;
+    mergeSort(key, keys, order, temp, from, mid);
+    mergeSort(key, keys, order, temp, mid, to);
+    if (compare(key, keys[order[mid - 1]], keys[order[mid]]) <= 0) {
+      return;
+    }
+    System.arraycopy(order, from, temp, from, to - from);
+    int i = from;
+    int j = mid;
+    for (int k = from; k < to; k++) {
+      if (j >= to || (i < mid && compare(key, keys[temp[i]], keys[temp[j]]) <= 0)) {
+        order[k] = temp[i++];
+      } else {
+        order[k] = temp[j++];
+      }
+    }
+  }
+
+  private static int compare(Key key, SortKeys a, SortKeys b) {
+    int c;
+    switch (key) {
+      case ARTIST:
+        c = a.artist.compareTo(b.artist);
+        break;
+      case LENGTH:
+        c = Integer.compare(a.length, b.length);
+        break;
+      case LANGUAGE:
+        c = a.language.compareTo(b.language);
+        break;
+      case CHARTER:
+        c = a.charter.compareTo(b.charter);
+        break;
+      default:
+        c = 0;
+    }
+    // anything else is sorted by title, then artist
+    if (c == 0) {
+      c = a.title.compareTo(b.title);
+    }
+    if (c == 0 && key != Key.ARTIST) {
+      c = a.artist.compareTo(b.artist);
+    }
+    if (c == 0) {
+      c = a.dir.compareTo(b.dir);
+    }
+    return c;
+  }
+
+  private static class SortKeys {
+    final CollationKey title;
+    final CollationKey artist;
+    final CollationKey language;
+    final CollationKey charter;
+    final int length;
+    final String dir;
+
+    SortKeys(SongsRepository.Entry entry, Collator collator) {
+      Song.Metadata m = entry.metadata;
+      title = collator.getCollationKey(m.title);
+      artist = collator.getCollationKey(m.artist);
+      language = collator.getCollationKey(m.language);
+      charter = collator.getCollationKey(m.charter);
+      length = m.length;
+      dir = entry.dir;
+    }
+  }
+
+}
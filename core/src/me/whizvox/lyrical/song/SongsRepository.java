@@ -1,59 +1,263 @@
 package me.whizvox.lyrical.song;
 
-import me.whizvox.lyrical.Reference;
+import me.whizvox.lyrical.util.RecordScanner;
 
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.function.BiConsumer;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Keeps track of every song in the songs directory.
+ * <br>
+ * The current state is published as an immutable {@link Snapshot}. Refreshes build the next snapshot on the side and
+ * swap it in once it's complete, so readers on any thread can keep using the snapshot they have without locking.
+ */
 public class SongsRepository {
 
-  private Map<String, Song.Metadata> songs;
+  private volatile Snapshot snapshot;
   private Path rootDir;
+  private Path indexPath;
+  private int scanThreads;
+  private ScanStats lastScanStats;
 
-  public SongsRepository(String root) {
+  /**
+   * @param scanThreads How many threads to read songs with during a full refresh, or 0 to use one per processor
+   */
+  public SongsRepository(String root, String indexPath, int scanThreads) {
     rootDir = Paths.get(root);
-    songs = new HashMap<>();
+    this.indexPath = Paths.get(indexPath);
+    this.scanThreads = scanThreads;
+    snapshot = new Snapshot(0, Collections.emptyMap(), new SongSearchIndex(), SongSortOrders.empty());
+    lastScanStats = null;
   }
 
-  public void refresh() throws IOException {
-    songs.clear();
+  // returns null if there is no song in the directory
+  private Entry scan(Path dir, Entry cached, RecordScanner scanner) throws IOException {
+    Path iniPath = dir.resolve("song.ini");
+    BasicFileAttributes iniAttrs;
+    try {
+      iniAttrs = Files.readAttributes(iniPath, BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+    final long iniSize = iniAttrs.size();
+    final long iniModified = iniAttrs.lastModifiedTime().toMillis();
+    Song.Metadata metadata;
+    if (cached != null && cached.iniSize == iniSize && cached.iniModified == iniModified) {
+      metadata = cached.metadata;
+    } else {
+      metadata = Song.readMetadata(iniPath, scanner);
+    }
+    BasicFileAttributes audioAttrs = null;
+    if (!metadata.filePath.isEmpty()) {
+      try {
+        audioAttrs = Files.readAttributes(dir.resolve(metadata.filePath), BasicFileAttributes.class);
+      } catch (NoSuchFileException e) {
+        // audio is missing, which is reported in the song selection screen
+      }
+    }
+    final boolean audioExists = audioAttrs != null && audioAttrs.isRegularFile();
+    final long audioSize = audioExists ? audioAttrs.size() : 0;
+    final long audioModified = audioExists ? audioAttrs.lastModifiedTime().toMillis() : 0;
+    if (cached != null && cached.metadata == metadata && cached.audioExists == audioExists &&
+        cached.audioSize == audioSize && cached.audioModified == audioModified) {
+      return cached;
+    }
+    return new Entry(dir.toString(), metadata, iniSize, iniModified, audioExists, audioSize, audioModified);
+  }
+
+  public synchronized void refresh() throws IOException {
     long t1 = System.currentTimeMillis();
-    Files.walk(rootDir, 2).filter(path -> path.getFileName().toString().equals("song.ini")).forEach(path -> {
+    Map<String, Entry> index = LibraryIndex.read(indexPath);
+    List<Path> dirs = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(rootDir, Files::isDirectory)) {
+      stream.forEach(dirs::add);
+    }
+
+    Map<String, Entry> newSongs = new ConcurrentHashMap<>(dirs.size() * 2);
+    Queue<Path> failures = new ConcurrentLinkedQueue<>();
+    AtomicInteger reread = new AtomicInteger();
+    ThreadLocal<RecordScanner> scanners = ThreadLocal.withInitial(() -> new RecordScanner(1024));
+    final int threads = scanThreads > 0 ? scanThreads : Runtime.getRuntime().availableProcessors();
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    try {
+      List<Callable<Void>> tasks = new ArrayList<>(dirs.size());
+      for (Path dir : dirs) {
+        tasks.add(() -> {
+          try {
+            Entry cached = index.get(dir.toString());
+            Entry entry = scan(dir, cached, scanners.get());
+            if (entry != null) {
+              newSongs.put(entry.dir, entry);
+              if (entry != cached) {
+                reread.incrementAndGet();
+              }
+            }
+          } catch (IOException | RuntimeException e) {
+            failures.add(dir);
+            System.err.println("Could not read from directory at <" + dir.toString() + ">");
+            e.printStackTrace();
+          }
+          return null;
+        });
+      }
+      pool.invokeAll(tasks);
+    } finally {
+      pool.shutdown();
+    }
+
+    Snapshot prev = snapshot;
+    SongSearchIndex newSearchIndex = new SongSearchIndex();
+    newSongs.values().forEach(newSearchIndex::put);
+    // only publish once everything has been scanned, so nothing ever sees a half-filled map
+    snapshot = new Snapshot(
+        prev.version + 1,
+        new HashMap<>(newSongs),
+        newSearchIndex,
+        SongSortOrders.build(newSongs.values(), prev.sortOrders)
+    );
+    if (reread.get() > 0 || index.size() != newSongs.size()) {
+      saveIndex();
+    }
+    lastScanStats = new ScanStats(dirs.size(), reread.get(), failures.size(), threads,
+        System.currentTimeMillis() - t1);
+    System.out.println("Read " + newSongs.size() + " song(s): " + lastScanStats);
+  }
+
+  public ScanStats getLastScanStats() {
+    return lastScanStats;
+  }
+
+  /**
+   * Re-reads a few song directories, adding, updating or removing their entries as needed.
+   * @param dirs Names of directories inside the songs directory
+   */
+  public synchronized void refresh(Collection<String> dirs) {
+    Snapshot prev = snapshot;
+    RecordScanner scanner = new RecordScanner(1024);
+    List<Entry> changed = new ArrayList<>();
+    List<String> removed = new ArrayList<>();
+    for (String dir : dirs) {
+      Path dirPath = rootDir.resolve(dir);
+      Entry cached = prev.songs.get(dirPath.toString());
       try {
-        Song.Metadata metadata = Song.readMetadata(path);
-        songs.put(path.getParent().toString(), metadata);
+        Entry entry = scan(dirPath, cached, scanner);
+        if (entry == null) {
+          if (cached != null) {
+            removed.add(dirPath.toString());
+          }
+        } else if (entry != cached) {
+          changed.add(entry);
+        }
       } catch (IOException e) {
-        System.err.println("Could not read from file at <" + path.toString() + ">");
+        System.err.println("Could not refresh song at <" + dirPath + ">");
         e.printStackTrace();
       }
-    });
-    long t2 = System.currentTimeMillis();
-    System.out.println("Read " + songs.size() + " song(s) in " + (t2 - t1) + "ms");
+    }
+    if (changed.isEmpty() && removed.isEmpty()) {
+      return;
+    }
+    Map<String, Entry> newSongs = new HashMap<>(prev.songs);
+    SongSearchIndex newSearchIndex = new SongSearchIndex(prev.searchIndex);
+    for (String dir : removed) {
+      newSongs.remove(dir);
+      newSearchIndex.remove(dir);
+    }
+    for (Entry entry : changed) {
+      newSongs.put(entry.dir, entry);
+      newSearchIndex.put(entry);
+    }
+    snapshot = new Snapshot(prev.version + 1, newSongs, newSearchIndex, prev.sortOrders.update(changed, removed));
+    saveIndex();
   }
 
   public void refresh(String dir) {
-    Path dirPath = Paths.get(Reference.Files.SONGS_DIR.child(dir).path());
-    songs.remove(dirPath.toString());
+    refresh(Collections.singletonList(dir));
+  }
+
+  /**
+   * Runs a full refresh on a new thread. Any changes show up as a new snapshot once it's done.
+   */
+  public void refreshInBackground() {
+    Thread thread = new Thread(() -> {
+      try {
+        refresh();
+      } catch (IOException e) {
+        System.err.println("Could not refresh songs directory");
+        e.printStackTrace();
+      }
+    }, "Library refresh");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * @return The latest snapshot, which stays the same no matter what happens to the repository afterwards
+   */
+  public Snapshot getSnapshot() {
+    return snapshot;
+  }
+
+  private void saveIndex() {
     try {
-      Song.Metadata metadata = Song.readMetadata(dirPath.resolve("song.ini"));
-      songs.put(dirPath.toString(), metadata);
+      LibraryIndex.write(indexPath, snapshot.songs.values());
     } catch (IOException e) {
-      System.err.println("Could not do a single song refresh");
+      System.err.println("Could not save library index at <" + indexPath + ">");
       e.printStackTrace();
     }
   }
 
-  public Map<String, Song.Metadata> getCopy() {
-    return new HashMap<>(songs);
+  public static class Snapshot {
+    // goes up by one with every snapshot
+    public final int version;
+    // keyed by directory, can't be modified
+    public final Map<String, Entry> songs;
+    public final SongSearchIndex searchIndex;
+    public final SongSortOrders sortOrders;
+
+    private Snapshot(int version, Map<String, Entry> songs, SongSearchIndex searchIndex, SongSortOrders sortOrders) {
+      this.version = version;
+      this.songs = Collections.unmodifiableMap(songs);
+      this.searchIndex = searchIndex;
+      this.sortOrders = sortOrders;
+    }
   }
 
-  public void forEach(BiConsumer<String, Song.Metadata> action) {
-    songs.forEach(action);
+  public static class Entry {
+    public final String dir;
+    public final Song.Metadata metadata;
+    public final long iniSize;
+    public final long iniModified;
+    public final boolean audioExists;
+    public final long audioSize;
+    public final long audioModified;
+
+    public Entry(String dir, Song.Metadata metadata, long iniSize, long iniModified, boolean audioExists,
+                 long audioSize, long audioModified) {
+      this.dir = dir;
+      this.metadata = metadata;
+      this.iniSize = iniSize;
+      this.iniModified = iniModified;
+      this.audioExists = audioExists;
+      this.audioSize = audioSize;
+      this.audioModified = audioModified;
+    }
   }
 
 }
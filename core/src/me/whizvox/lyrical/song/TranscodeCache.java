@@ -0,0 +1,314 @@
+package me.whizvox.lyrical.song;
+
+import me.whizvox.lyrical.util.HashUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.DoubleConsumer;
+
+/**
+ * WAV copies of song audio, transcoded with ffmpeg and kept between runs.
+ * <br>
+ * Each copy is named after a hash of the source file's name, size and last modified time, so editing or replacing the
+ * source file gets it transcoded again, while opening the same song twice doesn't, even if its directory was renamed in
+ * between. Transcodes are written to a temporary file and only moved into place once ffmpeg has finished, and a cached
+ * copy is only reused if its RIFF header is intact and matches its size on disk.
+ * <br>
+ * {@link #transcodeInBackground(Path)} runs the transcode on its own thread and reports progress through a
+ * {@link Job}, so the render thread never has to wait for ffmpeg.
+ */
+public class TranscodeCache {
+
+  private final Path dir;
+  private final CacheManager cacheManager;
+  // keyed by the WAV being written
+  private final Map<Path, Job> running;
+
+  public TranscodeCache(Path dir, CacheManager cacheManager) {
+    this.dir = dir;
+    this.cacheManager = cacheManager;
+    running = new HashMap<>();
+  }
+
+  /**
+   * @return Where the WAV copy of <code>source</code> is or would be kept
+   */
+  public Path getPath(Path source) throws IOException {
+    return dir.resolve(key(source) + ".wav");
+  }
+
+  /**
+   * @return The WAV copy of <code>source</code>, or null if there isn't a valid one yet
+   */
+  public Path get(Path source) throws IOException {
+    Path wav = getPath(source);
+    if (isValidWav(wav)) {
+      cacheManager.touch(wav);
+      return wav;
+    }
+    return null;
+  }
+
+  /**
+   * Gets the WAV copy of <code>source</code> on a background thread, transcoding it first if there isn't a valid one
+   * yet. If the same file is already being transcoded, the job that's doing it is returned instead of starting another.
+   */
+  public synchronized Job transcodeInBackground(Path source) {
+    Job job;
+    Path wav;
+    try {
+      wav = getPath(source);
+    } catch (IOException e) {
+      System.err.println("Could not transcode <" + source + ">");
+      e.printStackTrace();
+      job = new Job();
+      job.finish(null);
+      return job;
+    }
+    job = running.get(wav);
+    if (job != null) {
+      return job;
+    }
+    job = new Job();
+    if (isValidWav(wav)) {
+      cacheManager.touch(wav);
+      job.finish(wav);
+      return job;
+    }
+    running.put(wav, job);
+    final Job finalJob = job;
+    Thread thread = new Thread(() -> {
+      Path result = null;
+      try {
+        result = getOrTranscode(source, finalJob::setProgress);
+      } catch (IOException | InterruptedException e) {
+        System.err.println("Could not transcode <" + source + ">");
+        e.printStackTrace();
+      }
+      synchronized (TranscodeCache.this) {
+        running.remove(wav);
+      }
+      finalJob.finish(result);
+    }, "Transcode");
+    thread.setDaemon(true);
+    thread.start();
+    return job;
+  }
+
+  /**
+   * Returns the WAV copy of <code>source</code>, transcoding it first if there isn't a valid one yet. This blocks until
+   * ffmpeg is done, or until the current thread is interrupted, which stops ffmpeg and throws an
+   * {@link InterruptedException}.
+   */
+  public Path getOrTranscode(Path source) throws IOException, InterruptedException {
+    return getOrTranscode(source, null);
+  }
+
+  /**
+   * @param progressListener Called from the current thread with how far along the transcode is, from 0 to 1. Can be
+   *                         null.
+   */
+  public Path getOrTranscode(Path source, DoubleConsumer progressListener) throws IOException, InterruptedException {
+    Path wav = getPath(source);
+    if (isValidWav(wav)) {
+      cacheManager.touch(wav);
+      return wav;
+    }
+    Files.createDirectories(dir);
+    Path tempWav = dir.resolve(UUID.randomUUID().toString() + ".part");
+    try {
+      String[] cmd = {
+          "ffmpeg",
+          "-v",
+          "info",
+          "-nostats",
+          "-progress",
+          "pipe:1",
+          "-y",
+          "-i",
+          source.toString(),
+          "-f",
+          "wav",
+          tempWav.toAbsolutePath().toString()
+      };
+      System.out.println("Transcoding <" + source + "> to <" + wav + ">");
+      Process exec = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+      // progress comes in as key=value lines on stdout, everything else is only worth showing if ffmpeg fails
+      StringBuilder output = new StringBuilder();
+      long durationMicros = -1;
+      final int exitValue;
+      try {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(exec.getInputStream()))) {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            // ffmpeg reports progress a couple of times a second, so this is how a transcode gets cancelled
+            if (Thread.currentThread().isInterrupted()) {
+              throw new InterruptedException("Transcode of <" + source + "> was cancelled");
+            }
+            final int durationIndex = line.indexOf("Duration: ");
+            if (durationIndex != -1 && durationMicros == -1) {
+              durationMicros = parseClockMicros(line, durationIndex + 10);
+            }
+            if (line.startsWith("out_time_us=") || line.startsWith("out_time_ms=")) {
+              // both are in microseconds
+              if (progressListener != null && durationMicros > 0) {
+                try {
+                  final long outMicros = Long.parseLong(line.substring(12).trim());
+                  progressListener.accept(Math.max(0, Math.min(1, (double) outMicros / durationMicros)));
+                } catch (NumberFormatException e) {
+                  // N/A before the first packet
+                }
+              }
+            } else if (line.indexOf('=') == -1 || line.indexOf(' ') != -1) {
+              output.append('\t').append(line).append('\n');
+            }
+          }
+        }
+        exitValue = exec.waitFor();
+      } finally {
+        // only still running if this was interrupted or reading its output failed
+        if (exec.isAlive()) {
+          exec.destroy();
+        }
+      }
+      if (exitValue != 0 || !isValidWav(tempWav)) {
+        System.out.print("\t-- FFMPEG OUTPUT --\n" + output);
+        throw new IOException("ffmpeg could not transcode <" + source + ">, exit value " + exitValue);
+      }
+      if (progressListener != null) {
+        progressListener.accept(1);
+      }
+      try {
+        Files.move(tempWav, wav, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempWav, wav, StandardCopyOption.REPLACE_EXISTING);
+      }
+      cacheManager.added(wav);
+      return wav;
+    } finally {
+      Files.deleteIfExists(tempWav);
+    }
+  }
+
+  // parses HH:MM:SS.xx starting at index, returns -1 if it's not there (like "Duration: N/A")
+  private static long parseClockMicros(String line, int index) {
+    final int end = line.indexOf(',', index);
+    String[] parts = line.substring(index, end == -1 ? line.length() : end).trim().split(":");
+    if (parts.length != 3) {
+      return -1;
+    }
+    try {
+      return (long) ((Integer.parseInt(parts[0]) * 3600 + Integer.parseInt(parts[1]) * 60 +
+          Double.parseDouble(parts[2])) * 1_000_000);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  // leaves out the directory, since saving a song from the editor renames its directory after its artist and title
+  private static String key(Path source) throws IOException {
+    BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+    return HashUtils.sha1Hex(
+        source.getFileName().toString(), attrs.size(), attrs.lastModifiedTime().toMillis()
+    );
+  }
+
+  /**
+   * Checks that a file starts with a RIFF/WAVE header whose size matches the file, and that it has a complete
+   * <code>data</code> chunk. This catches transcodes that were cut off or files that were truncated later on.
+   */
+  public static boolean isValidWav(Path path) {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final long fileSize = channel.size();
+      ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+      if (fileSize < 12 || channel.read(header, 0) != 12) {
+        return false;
+      }
+      if (header.getInt(0) != 0x46464952 || header.getInt(8) != 0x45564157) { // "RIFF", "WAVE"
+        return false;
+      }
+      if ((header.getInt(4) & 0xFFFFFFFFL) + 8 != fileSize) {
+        return false;
+      }
+      ByteBuffer chunk = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+      long pos = 12;
+      while (pos + 8 <= fileSize) {
+        chunk.clear();
+        if (channel.read(chunk, pos) != 8) {
+          return false;
+        }
+        final long chunkSize = chunk.getInt(4) & 0xFFFFFFFFL;
+        if (chunk.getInt(0) == 0x61746164) { // "data"
+          return pos + 8 + chunkSize <= fileSize;
+        }
+        // chunks are padded to an even size
+        pos += 8 + chunkSize + (chunkSize & 1);
+      }
+      return false;
+    } catch (NoSuchFileException e) {
+      return false;
+    } catch (IOException e) {
+      System.err.println("Could not check cached transcode at <" + path + ">");
+      e.printStackTrace();
+      return false;
+    }
+  }
+
+  /**
+   * A transcode running in the background. Everything here can be read from any thread.
+   */
+  public static class Job {
+    private volatile float progress;
+    private volatile boolean done;
+    private volatile Path result;
+
+    private Job() {
+      progress = 0;
+      done = false;
+      result = null;
+    }
+
+    private void setProgress(double progress) {
+      this.progress = (float) progress;
+    }
+
+    private void finish(Path result) {
+      this.result = result;
+      progress = 1;
+      done = true;
+    }
+
+    /**
+     * @return How far along the transcode is, from 0 to 1
+     */
+    public float getProgress() {
+      return progress;
+    }
+
+    public boolean isDone() {
+      return done;
+    }
+
+    /**
+     * @return The WAV copy, or null if the job isn't done yet or failed
+     */
+    public Path getResult() {
+      return result;
+    }
+  }
+
+}
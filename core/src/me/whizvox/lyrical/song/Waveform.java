@@ -0,0 +1,167 @@
+package me.whizvox.lyrical.song;
+
+import me.whizvox.lyrical.util.WavReader;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The loudest and quietest points of a song's audio, at several resolutions.
+ * <br>
+ * Level 0 has a min/max pair for every {@link #BASE_FRAMES_PER_PEAK} frames, and every level after it merges pairs of
+ * peaks from the level before, like mipmaps. That way, drawing any stretch of the song at any zoom only has to look
+ * at a couple of peaks per column on screen. Peaks are stored as signed bytes, from -127 to 127.
+ */
+public class Waveform {
+
+  public static final int BASE_FRAMES_PER_PEAK = 256;
+
+  private static final int
+      MAGIC = 0x4C59504B, // "LYPK"
+      VERSION = 1,
+      // no point in making levels smaller than this
+      MIN_LEVEL_PEAKS = 64;
+
+  private final int sampleRate;
+  // levels[level][peak * 2] = min, levels[level][peak * 2 + 1] = max
+  private final byte[][] levels;
+
+  private Waveform(int sampleRate, byte[][] levels) {
+    this.sampleRate = sampleRate;
+    this.levels = levels;
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  public int getLengthMillis() {
+    return (int) ((long) levels[0].length / 2 * BASE_FRAMES_PER_PEAK * 1000 / sampleRate);
+  }
+
+  /**
+   * Finds the peaks of consecutive, evenly-sized stretches of the song, which is meant for drawing one column per
+   * stretch. Stretches that are outside of the song get 0 for both. Doesn't allocate anything.
+   * @param beginMillis Where the first stretch starts, can be negative
+   * @param millisPerColumn How long each stretch is
+   * @param mins Lowest point of each stretch, from -1 to 0
+   * @param maxs Highest point of each stretch, from 0 to 1
+   */
+  public void getPeaks(double beginMillis, double millisPerColumn, int columns, float[] mins, float[] maxs) {
+    final double framesPerColumn = millisPerColumn * sampleRate / 1000;
+    // the coarsest level that still has at least one peak per column
+    int level = 0;
+    while (level + 1 < levels.length && ((long) BASE_FRAMES_PER_PEAK << (level + 1)) <= framesPerColumn) {
+      level++;
+    }
+    final byte[] peaks = levels[level];
+    final int peakCount = peaks.length / 2;
+    final double framesPerPeak = (double) ((long) BASE_FRAMES_PER_PEAK << level);
+    final double beginFrame = beginMillis * sampleRate / 1000;
+    for (int c = 0; c < columns; c++) {
+      final double f0 = beginFrame + c * framesPerColumn;
+      final double f1 = f0 + framesPerColumn;
+      int p0 = (int) Math.floor(f0 / framesPerPeak);
+      int p1 = (int) Math.ceil(f1 / framesPerPeak);
+      if (p1 <= p0) {
+        p1 = p0 + 1;
+      }
+      p0 = Math.max(p0, 0);
+      p1 = Math.min(p1, peakCount);
+      int min = 0;
+      int max = 0;
+      for (int p = p0; p < p1; p++) {
+        min = Math.min(min, peaks[p * 2]);
+        max = Math.max(max, peaks[p * 2 + 1]);
+      }
+      mins[c] = min / 127f;
+      maxs[c] = max / 127f;
+    }
+  }
+
+  public void write(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeInt(sampleRate);
+    out.writeInt(BASE_FRAMES_PER_PEAK);
+    out.writeInt(levels.length);
+    for (byte[] level : levels) {
+      out.writeInt(level.length / 2);
+      out.write(level);
+    }
+  }
+
+  /**
+   * @return The waveform, or null if it was written in a different format
+   */
+  public static Waveform read(DataInputStream in) throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      return null;
+    }
+    final int sampleRate = in.readInt();
+    if (sampleRate <= 0 || in.readInt() != BASE_FRAMES_PER_PEAK) {
+      return null;
+    }
+    final int levelCount = in.readInt();
+    if (levelCount <= 0 || levelCount > 32) {
+      return null;
+    }
+    byte[][] levels = new byte[levelCount][];
+    for (int i = 0; i < levelCount; i++) {
+      final int peaks = in.readInt();
+      if (peaks < 0 || (i > 0 && peaks != (levels[i - 1].length / 2 + 1) / 2)) {
+        return null;
+      }
+      levels[i] = new byte[peaks * 2];
+      in.readFully(levels[i]);
+    }
+    return new Waveform(sampleRate, levels);
+  }
+
+  /**
+   * Decodes a whole WAV file and finds its peaks.
+   */
+  public static Waveform analyze(WavReader reader) throws IOException {
+    final int baseCount = (int) ((reader.getFrameCount() + BASE_FRAMES_PER_PEAK - 1) / BASE_FRAMES_PER_PEAK);
+    byte[] base = new byte[baseCount * 2];
+    float[] block = new float[BASE_FRAMES_PER_PEAK];
+    int read;
+    int peak = 0;
+    while (peak < baseCount && (read = reader.read(block, 0, BASE_FRAMES_PER_PEAK)) > 0) {
+      float min = 0;
+      float max = 0;
+      for (int i = 0; i < read; i++) {
+        min = Math.min(min, block[i]);
+        max = Math.max(max, block[i]);
+      }
+      base[peak * 2] = (byte) Math.round(Math.max(-1, min) * 127);
+      base[peak * 2 + 1] = (byte) Math.round(Math.min(1, max) * 127);
+      peak++;
+    }
+    int levelCount = 1;
+    for (int n = baseCount; n > MIN_LEVEL_PEAKS; n = (n + 1) / 2) {
+      levelCount++;
+    }
+    byte[][] levels = new byte[levelCount][];
+    levels[0] = base;
+    for (int i = 1; i < levelCount; i++) {
+      byte[] prev = levels[i - 1];
+      final int prevCount = prev.length / 2;
+      byte[] level = new byte[(prevCount + 1) / 2 * 2];
+      for (int p = 0; p < prevCount; p += 2) {
+        byte min = prev[p * 2];
+        byte max = prev[p * 2 + 1];
+        if (p + 1 < prevCount) {
+          min = (byte) Math.min(min, prev[p * 2 + 2]);
+          max = (byte) Math.max(max, prev[p * 2 + 3]);
+        }
+        level[p] = min;
+        level[p + 1] = max;
+      }
+      levels[i] = level;
+    }
+    return new Waveform(reader.getSampleRate(), levels);
+  }
+
+}
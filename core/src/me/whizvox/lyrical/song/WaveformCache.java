@@ -0,0 +1,130 @@
+package me.whizvox.lyrical.song;
+
+import com.badlogic.gdx.utils.Disposable;
+import me.whizvox.lyrical.util.WavReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * {@link Waveform}s of transcoded WAV files, kept between runs.
+ * <br>
+ * Peak files are named after the WAV they were made from, which is already named after a hash of the original audio
+ * (see {@link TranscodeCache}), so a song only ever gets decoded once. Everything is read and written on a single
+ * background thread.
+ */
+public class WaveformCache implements Disposable {
+
+  private final Path dir;
+  private final CacheManager cacheManager;
+  private final ExecutorService executor;
+  // keyed by WAV file, only holds loads that haven't finished yet
+  private final Map<Path, CompletableFuture<Waveform>> loading;
+
+  public WaveformCache(Path dir, CacheManager cacheManager) {
+    this.dir = dir;
+    this.cacheManager = cacheManager;
+    executor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "Waveform peaks");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    });
+    loading = new HashMap<>();
+  }
+
+  public Path getPath(Path wav) {
+    String name = wav.getFileName().toString();
+    if (name.endsWith(".wav")) {
+      name = name.substring(0, name.length() - 4);
+    }
+    return dir.resolve(name + ".peaks");
+  }
+
+  /**
+   * Reads the waveform of a WAV file in the background, analyzing the WAV first if it hasn't been yet. If the same file
+   * is already being loaded, the same future is returned. The future completes with null if the WAV couldn't be read.
+   */
+  public synchronized CompletableFuture<Waveform> load(Path wav) {
+    CompletableFuture<Waveform> future = loading.get(wav);
+    if (future != null) {
+      return future;
+    }
+    future = CompletableFuture.supplyAsync(() -> {
+      try {
+        return getOrAnalyze(wav);
+      } catch (IOException e) {
+        System.err.println("Could not get waveform of <" + wav + ">");
+        e.printStackTrace();
+        return null;
+      }
+    }, executor);
+    loading.put(wav, future);
+    future.whenComplete((waveform, t) -> {
+      synchronized (WaveformCache.this) {
+        loading.remove(wav);
+      }
+    });
+    return future;
+  }
+
+  private Waveform getOrAnalyze(Path wav) throws IOException {
+    Path peaks = getPath(wav);
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(peaks)))) {
+      Waveform waveform = Waveform.read(in);
+      if (waveform != null) {
+        cacheManager.touch(peaks);
+        return waveform;
+      }
+    } catch (NoSuchFileException e) {
+      // not analyzed yet
+    } catch (IOException e) {
+      System.err.println("Could not read cached waveform <" + peaks + ">, analyzing again");
+      e.printStackTrace();
+    }
+    Waveform waveform;
+    try (WavReader reader = new WavReader(wav)) {
+      waveform = Waveform.analyze(reader);
+    }
+    Files.createDirectories(dir);
+    Path tempPeaks = dir.resolve(UUID.randomUUID().toString() + ".part");
+    try {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPeaks)))) {
+        waveform.write(out);
+      }
+      try {
+        Files.move(tempPeaks, peaks, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempPeaks, peaks, StandardCopyOption.REPLACE_EXISTING);
+      }
+      cacheManager.added(peaks);
+    } catch (IOException e) {
+      // the waveform is still usable, it'll just be analyzed again next time
+      System.err.println("Could not cache waveform at <" + peaks + ">");
+      e.printStackTrace();
+    } finally {
+      Files.deleteIfExists(tempPeaks);
+    }
+    return waveform;
+  }
+
+  @Override
+  public void dispose() {
+    executor.shutdownNow();
+  }
+
+}
@@ -0,0 +1,20 @@
+package me.whizvox.lyrical.util;
+
+/**
+ * Where timing code gets the current time from. Code that measures time should take one of these instead of calling
+ * {@link System#nanoTime()} or {@link System#currentTimeMillis()} itself, so it can be driven by a
+ * {@link SimulatedClock} instead of the wall clock.
+ * <br>
+ * Only differences between two readings mean anything, like with {@link System#nanoTime()}.
+ */
+public interface Clock {
+
+  Clock SYSTEM = System::nanoTime;
+
+  long nanoTime();
+
+  default long millis() {
+    return nanoTime() / 1_000_000L;
+  }
+
+}
@@ -0,0 +1,81 @@
+package me.whizvox.lyrical.util;
+
+/**
+ * An in-place radix-2 fast Fourier transform of a fixed size. The twiddle factors and bit reversal table are computed
+ * once, so transforming doesn't allocate anything, and one instance can be shared between threads.
+ */
+public class FFT {
+
+  private final int size;
+  private final int[] reversed;
+  private final float[] cos;
+  private final float[] sin;
+
+  public FFT(int size) {
+    if (size < 2 || Integer.bitCount(size) != 1) {
+      throw new IllegalArgumentException("Size must be a power of 2: " + size);
+    }
+    this.size = size;
+    final int bits = Integer.numberOfTrailingZeros(size);
+    reversed = new int[size];
+    for (int i = 0; i < size; i++) {
+      reversed[i] = Integer.reverse(i) >>> (32 - bits);
+    }
+    cos = new float[size / 2];
+    sin = new float[size / 2];
+    for (int i = 0; i < size / 2; i++) {
+      cos[i] = (float) Math.cos(-2 * Math.PI * i / size);
+      sin[i] = (float) Math.sin(-2 * Math.PI * i / size);
+    }
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * @return A Hann window of this size, to multiply samples by before transforming them
+   */
+  public float[] createHannWindow() {
+    float[] window = new float[size];
+    for (int i = 0; i < size; i++) {
+      window[i] = (float) (0.5 - 0.5 * Math.cos(2 * Math.PI * i / (size - 1)));
+    }
+    return window;
+  }
+
+  /**
+   * Transforms <code>re</code> and <code>im</code> in place. Both must be exactly {@link #getSize()} long.
+   */
+  public void transform(float[] re, float[] im) {
+    for (int i = 0; i < size; i++) {
+      final int j = reversed[i];
+      if (j > i) {
+        float t = re[i];
+        re[i] = re[j];
+        re[j] = t;
+        t = im[i];
+        im[i] = im[j];
+        im[j] = t;
+      }
+    }
+    for (int half = 1; half < size; half <<= 1) {
+      final int step = size / (half * 2);
+      for (int start = 0; start < size; start += half * 2) {
+        for (int k = 0; k < half; k++) {
+          final float wr = cos[k * step];
+          final float wi = sin[k * step];
+          final int a = start + k;
+          final int b = a + half;
+          final float tr = re[b] * wr - im[b] * wi;
+          final float ti = re[b] * wi + im[b] * wr;
+          re[b] = re[a] - tr;
+          im[b] = im[a] - ti;
+          re[a] += tr;
+          im[a] += ti;
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,35 @@
+package me.whizvox.lyrical.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+public class HashUtils {
+
+  /**
+   * @return The SHA-1 of <code>text</code> followed by each number, as 40 lowercase hex digits. Used to name cache
+   * files after whatever they were made from.
+   */
+  public static String sha1Hex(String text, long... numbers) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform has to support SHA-1
+      throw new IllegalStateException(e);
+    }
+    digest.update(text.getBytes(StandardCharsets.UTF_8));
+    ByteBuffer buf = ByteBuffer.allocate(numbers.length * 8);
+    for (long n : numbers) {
+      buf.putLong(n);
+    }
+    digest.update(buf.array());
+    StringBuilder sb = new StringBuilder(40);
+    for (byte b : digest.digest()) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
+
+}
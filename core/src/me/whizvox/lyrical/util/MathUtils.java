@@ -14,19 +14,23 @@ public class MathUtils {
   }
 
   public static Vector2 alignRectangle(Rectangle outerBounds, Vector2 rectSize, int align) {
+    return alignRectangle(outerBounds, rectSize.x, rectSize.y, align, new Vector2());
+  }
+
+  public static Vector2 alignRectangle(Rectangle outerBounds, float width, float height, int align, Vector2 out) {
     float x = outerBounds.x;
     float y = outerBounds.y;
     if (Align.isCenterHorizontal(align)) {
-      x += (outerBounds.width / 2) - (rectSize.x / 2);
+      x += (outerBounds.width / 2) - (width / 2);
     } else if (Align.isRight(align)) {
-      x += outerBounds.width - rectSize.x;
+      x += outerBounds.width - width;
     }
     if (Align.isCenterVertical(align)) {
-      y += (outerBounds.height - rectSize.y) / 2.0f;
+      y += (outerBounds.height - height) / 2.0f;
     } else if (Align.isTop(align)) {
-      y += outerBounds.height - rectSize.y;
+      y += outerBounds.height - height;
     }
-    return new Vector2(x, y);
+    return out.set(x, y);
   }
 
 }
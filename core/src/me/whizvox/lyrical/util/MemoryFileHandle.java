@@ -0,0 +1,49 @@
+package me.whizvox.lyrical.util;
+
+import com.badlogic.gdx.files.FileHandle;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * A read-only file whose contents have already been loaded into memory. Opening music from one of these doesn't touch
+ * the disk, so it's cheap enough to do on the render thread.
+ */
+public class MemoryFileHandle extends FileHandle {
+
+  private final byte[] bytes;
+
+  /**
+   * @param fileName Only used for its name and extension, which decide how the contents are decoded
+   */
+  public MemoryFileHandle(String fileName, byte[] bytes) {
+    super(fileName);
+    this.bytes = bytes;
+  }
+
+  @Override
+  public InputStream read() {
+    return new ByteArrayInputStream(bytes);
+  }
+
+  @Override
+  public byte[] readBytes() {
+    return bytes.clone();
+  }
+
+  @Override
+  public long length() {
+    return bytes.length;
+  }
+
+  @Override
+  public boolean exists() {
+    return true;
+  }
+
+  @Override
+  public boolean isDirectory() {
+    return false;
+  }
+
+}
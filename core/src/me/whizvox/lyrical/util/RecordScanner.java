@@ -0,0 +1,216 @@
+package me.whizvox.lyrical.util;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a character stream one line at a time into a reusable buffer, and splits each line into fields in place. Only
+ * {@link #fieldString(int)} and {@link #lineString()} create objects, so scanning <code>key=value</code> or
+ * <code>begin,end,text</code> records doesn't allocate anything for the fields that are compared or parsed as ints.
+ * <br>
+ * A scanner can be reused for several streams by calling {@link #reset(Reader)} again.
+ */
+public class RecordScanner {
+
+  private static final int MAX_FIELDS = 8;
+
+  private Reader reader;
+  private char[] buf;
+  private int limit;
+  private int next;
+  private boolean eof;
+
+  private int lineStart;
+  private int lineEnd;
+
+  private final int[] fieldStarts;
+  private final int[] fieldEnds;
+  private int fieldCount;
+
+  public RecordScanner(int initialCapacity) {
+    buf = new char[Math.max(initialCapacity, 16)];
+    fieldStarts = new int[MAX_FIELDS];
+    fieldEnds = new int[MAX_FIELDS];
+  }
+
+  public RecordScanner() {
+    this(8192);
+  }
+
+  public void reset(Reader reader) {
+    this.reader = reader;
+    limit = 0;
+    next = 0;
+    eof = false;
+    lineStart = 0;
+    lineEnd = 0;
+    fieldCount = 0;
+  }
+
+  /**
+   * Advances to the next line, stripping the line terminator (<code>\n</code> or <code>\r\n</code>).
+   * @return <code>false</code> if the end of the stream has been reached
+   */
+  public boolean nextLine() throws IOException {
+    fieldCount = 0;
+    int i = next;
+    while (true) {
+      while (i < limit) {
+        if (buf[i] == '\n') {
+          setLine(next, i);
+          next = i + 1;
+          return true;
+        }
+        i++;
+      }
+      if (eof) {
+        if (next < limit) {
+          setLine(next, limit);
+          next = limit;
+          return true;
+        }
+        return false;
+      }
+      i -= next;
+      fill();
+    }
+  }
+
+  private void setLine(int start, int end) {
+    lineStart = start;
+    lineEnd = end > start && buf[end - 1] == '\r' ? end - 1 : end;
+  }
+
+  // moves the unread part of the buffer to the front (growing it if the current line doesn't fit) and reads more
+  private void fill() throws IOException {
+    final int remaining = limit - next;
+    if (remaining == buf.length) {
+      char[] newBuf = new char[buf.length * 2];
+      System.arraycopy(buf, next, newBuf, 0, remaining);
+      buf = newBuf;
+    } else if (next > 0) {
+      System.arraycopy(buf, next, buf, 0, remaining);
+    }
+    next = 0;
+    limit = remaining;
+    final int read = reader.read(buf, limit, buf.length - limit);
+    if (read == -1) {
+      eof = true;
+    } else {
+      limit += read;
+    }
+  }
+
+  public int length() {
+    return lineEnd - lineStart;
+  }
+
+  public boolean isEmpty() {
+    return lineEnd == lineStart;
+  }
+
+  public boolean lineEquals(String s) {
+    return regionEquals(lineStart, lineEnd, s);
+  }
+
+  /**
+   * Splits the current line by <code>delimiter</code> into at most <code>max</code> fields. The last field holds the
+   * rest of the line, delimiters included.
+   * @return The number of fields found
+   */
+  public int split(char delimiter, int max) {
+    if (max < 1 || max > MAX_FIELDS) {
+      throw new IllegalArgumentException("Invalid maximum number of fields: " + max);
+    }
+    fieldCount = 0;
+    int start = lineStart;
+    for (int i = lineStart; i < lineEnd && fieldCount < max - 1; i++) {
+      if (buf[i] == delimiter) {
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = i;
+        fieldCount++;
+        start = i + 1;
+      }
+    }
+    fieldStarts[fieldCount] = start;
+    fieldEnds[fieldCount] = lineEnd;
+    fieldCount++;
+    return fieldCount;
+  }
+
+  public int getFieldCount() {
+    return fieldCount;
+  }
+
+  public boolean fieldEquals(int field, String s) {
+    checkField(field);
+    return regionEquals(fieldStarts[field], fieldEnds[field], s);
+  }
+
+  /**
+   * Parses a field as a base-10 int, accepting the same input as {@link Integer#parseInt(String)}.
+   * @throws NumberFormatException if the field isn't a valid int
+   */
+  public int fieldInt(int field) {
+    checkField(field);
+    final int start = fieldStarts[field];
+    final int end = fieldEnds[field];
+    int i = start;
+    boolean negative = false;
+    if (i < end && (buf[i] == '-' || buf[i] == '+')) {
+      negative = buf[i] == '-';
+      i++;
+    }
+    if (i == end) {
+      throw invalidInt(field);
+    }
+    // accumulate negatively so that Integer.MIN_VALUE can be parsed
+    final int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+    final int multMin = limit / 10;
+    int result = 0;
+    for (; i < end; i++) {
+      final int digit = Character.digit(buf[i], 10);
+      if (digit < 0 || result < multMin) {
+        throw invalidInt(field);
+      }
+      result *= 10;
+      if (result < limit + digit) {
+        throw invalidInt(field);
+      }
+      result -= digit;
+    }
+    return negative ? result : -result;
+  }
+
+  public String fieldString(int field) {
+    checkField(field);
+    return new String(buf, fieldStarts[field], fieldEnds[field] - fieldStarts[field]);
+  }
+
+  public String lineString() {
+    return new String(buf, lineStart, lineEnd - lineStart);
+  }
+
+  private boolean regionEquals(int start, int end, String s) {
+    if (end - start != s.length()) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      if (buf[i] != s.charAt(i - start)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void checkField(int field) {
+    if (field < 0 || field >= fieldCount) {
+      throw new IndexOutOfBoundsException("Invalid field: " + field + " (" + fieldCount + " field(s))");
+    }
+  }
+
+  private NumberFormatException invalidInt(int field) {
+    return new NumberFormatException("For input string: \"" + fieldString(field) + "\"");
+  }
+
+}
@@ -0,0 +1,35 @@
+package me.whizvox.lyrical.util;
+
+/**
+ * A clock that only moves when it's told to, so timing code can be run deterministically and as fast as the CPU
+ * allows, like replaying a whole song's worth of ticks in a benchmark.
+ */
+public class SimulatedClock implements Clock {
+
+  private long nanos;
+
+  public SimulatedClock(long startNanos) {
+    nanos = startNanos;
+  }
+
+  public SimulatedClock() {
+    this(0);
+  }
+
+  @Override
+  public long nanoTime() {
+    return nanos;
+  }
+
+  public void advanceNanos(long nanos) {
+    if (nanos < 0) {
+      throw new IllegalArgumentException("Cannot go back in time: " + nanos);
+    }
+    this.nanos += nanos;
+  }
+
+  public void advanceMillis(long millis) {
+    advanceNanos(millis * 1_000_000L);
+  }
+
+}
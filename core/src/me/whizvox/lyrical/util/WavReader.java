@@ -0,0 +1,187 @@
+package me.whizvox.lyrical.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the samples of a PCM WAV file, mixed down to mono, one block at a time. Supports 8, 16, 24 and 32-bit integer
+ * samples and 32-bit float samples, which covers everything ffmpeg writes by default.
+ * <br>
+ * Nothing is allocated after the reader is created, so it can be used to go through long files in tight loops.
+ */
+public class WavReader implements Closeable {
+
+  private static final int
+      FORMAT_PCM = 1,
+      FORMAT_FLOAT = 3,
+      FORMAT_EXTENSIBLE = 0xFFFE;
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer;
+  private final int sampleRate;
+  private final int channels;
+  private final int bytesPerSample;
+  private final boolean floatSamples;
+  private final long dataStart;
+  private final long frameCount;
+  private long framesRead;
+
+  public WavReader(Path path) throws IOException {
+    channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      ByteBuffer header = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+      readFully(header, 0, 12);
+      if (header.getInt(0) != 0x46464952 || header.getInt(8) != 0x45564157) { // "RIFF", "WAVE"
+        throw new IOException("Not a WAV file: " + path);
+      }
+      int format = -1;
+      int channels = 0;
+      int sampleRate = 0;
+      int bitsPerSample = 0;
+      long dataStart = -1;
+      long dataSize = 0;
+      final long fileSize = channel.size();
+      long pos = 12;
+      while (pos + 8 <= fileSize && dataStart == -1) {
+        readFully(header, pos, 8);
+        final int chunkId = header.getInt(0);
+        final long chunkSize = header.getInt(4) & 0xFFFFFFFFL;
+        if (chunkId == 0x20746d66) { // "fmt "
+          readFully(header, pos + 8, (int) Math.min(chunkSize, 40));
+          format = header.getShort(0) & 0xFFFF;
+          channels = header.getShort(2) & 0xFFFF;
+          sampleRate = header.getInt(4);
+          bitsPerSample = header.getShort(14) & 0xFFFF;
+          if (format == FORMAT_EXTENSIBLE && chunkSize >= 26) {
+            // the real format is the first two bytes of the sub-format GUID
+            format = header.getShort(24) & 0xFFFF;
+          }
+        } else if (chunkId == 0x61746164) { // "data"
+          dataStart = pos + 8;
+          dataSize = Math.min(chunkSize, fileSize - dataStart);
+        }
+        pos += 8 + chunkSize + (chunkSize & 1);
+      }
+      if (format == -1 || dataStart == -1) {
+        throw new IOException("WAV file is missing its format or data: " + path);
+      }
+      if (channels == 0 || sampleRate <= 0) {
+        throw new IOException("WAV file has an invalid format: " + path);
+      }
+      if (!(format == FORMAT_PCM && (bitsPerSample == 8 || bitsPerSample == 16 || bitsPerSample == 24 ||
+          bitsPerSample == 32)) && !(format == FORMAT_FLOAT && bitsPerSample == 32)) {
+        throw new IOException("Unsupported WAV format " + format + " with " + bitsPerSample + " bits per sample: " +
+            path);
+      }
+      this.sampleRate = sampleRate;
+      this.channels = channels;
+      bytesPerSample = bitsPerSample / 8;
+      floatSamples = format == FORMAT_FLOAT;
+      this.dataStart = dataStart;
+      frameCount = dataSize / ((long) bytesPerSample * channels);
+      framesRead = 0;
+      buffer = ByteBuffer.allocateDirect(bytesPerSample * channels * 4096).order(ByteOrder.LITTLE_ENDIAN);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  private void readFully(ByteBuffer buf, long pos, int length) throws IOException {
+    buf.clear();
+    buf.limit(length);
+    while (buf.hasRemaining()) {
+      if (channel.read(buf, pos + buf.position()) == -1) {
+        throw new IOException("Unexpected end of WAV file");
+      }
+    }
+  }
+
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  public int getChannels() {
+    return channels;
+  }
+
+  public long getFrameCount() {
+    return frameCount;
+  }
+
+  public long getFramesRead() {
+    return framesRead;
+  }
+
+  /**
+   * Moves to a frame, so the next {@link #read(float[], int, int)} starts there.
+   */
+  public void seek(long frame) {
+    framesRead = Math.max(0, Math.min(frame, frameCount));
+  }
+
+  /**
+   * Reads the next frames, each one being the average of its channels from -1 to 1.
+   * @return How many frames were read, which is only less than <code>length</code> at the end of the file, or -1 if
+   * there aren't any frames left
+   */
+  public int read(float[] out, int offset, int length) throws IOException {
+    if (framesRead >= frameCount) {
+      return -1;
+    }
+    final int frameSize = bytesPerSample * channels;
+    final float channelScale = 1f / channels;
+    int total = 0;
+    while (total < length && framesRead < frameCount) {
+      final int frames = (int) Math.min(Math.min(length - total, buffer.capacity() / frameSize), frameCount - framesRead);
+      buffer.clear();
+      buffer.limit(frames * frameSize);
+      final long pos = dataStart + framesRead * frameSize;
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, pos + buffer.position()) == -1) {
+          throw new IOException("Unexpected end of WAV file");
+        }
+      }
+      buffer.flip();
+      for (int i = 0; i < frames; i++) {
+        float sum = 0;
+        for (int c = 0; c < channels; c++) {
+          sum += readSample();
+        }
+        out[offset + total + i] = sum * channelScale;
+      }
+      total += frames;
+      framesRead += frames;
+    }
+    return total;
+  }
+
+  private float readSample() {
+    switch (bytesPerSample) {
+      case 1:
+        // 8-bit samples are unsigned
+        return ((buffer.get() & 0xFF) - 128) / 128f;
+      case 2:
+        return buffer.getShort() / 32768f;
+      case 3: {
+        final int b0 = buffer.get() & 0xFF;
+        final int b1 = buffer.get() & 0xFF;
+        final int b2 = buffer.get();
+        return ((b2 << 16) | (b1 << 8) | b0) / 8388608f;
+      }
+      default:
+        return floatSamples ? buffer.getFloat() : buffer.getInt() / 2147483648f;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+}